@@ -0,0 +1,87 @@
+package com.itheima.es.benchmark;
+
+import com.itheima.es.Article;
+import com.itheima.es.codec.ArticleSerializer;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+
+/**
+ * 基准测试使用的固定数据，不需要连接集群
+ */
+final class BenchmarkData {
+
+    static final String CONTENT = "我们希望我们的搜索解决方案要快，我们希望有一个零配置和一个完全免费的搜索模式，\n" +
+            "我们希望能够简单地使用JSON通过HTTP的索引数据，我们希望我们的搜索服务器始终可用，我们希望能够一台开始并扩\n" +
+            "展到数百，我们要实时搜索，我们要简单的多租户，我们希望建立一个云的解决方案。Elasticsearch旨在解决所有这\n" +
+            "些问题和更多的问题。";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 和testAddDocument3相同的文档，contentRepeat控制content的长度
+     */
+    static Article article(long id, int contentRepeat) {
+        Article article = new Article();
+        article.setId(id);
+        article.setTitle("搜索工作其实很快乐" + id);
+        StringBuilder content = new StringBuilder(CONTENT.length() * contentRepeat);
+        for (int i = 0; i < contentRepeat; i++) {
+            content.append(CONTENT);
+        }
+        article.setContent(content.append(id).toString());
+        return article;
+    }
+
+    /**
+     * 构造一个包含hitCount个hit的搜索响应，并按transport协议序列化成字节，
+     * 和客户端从网络上收到的内容一致
+     */
+    static BytesReference cannedSearchResponse(int hitCount, int contentRepeat, boolean withHighlight) {
+        SearchHit[] hits = new SearchHit[hitCount];
+        for (int i = 0; i < hitCount; i++) {
+            Article article = article(i + 1, contentRepeat);
+            SearchHit hit = new SearchHit(i, String.valueOf(article.getId()), new Text("article"), Collections.emptyMap());
+            hit.sourceRef(ArticleSerializer.toBytes(article));
+            if (withHighlight) {
+                hit.highlightFields(Collections.singletonMap("title", new HighlightField("title",
+                        new Text[]{new Text("<em>搜索</em>工作其实很快乐" + article.getId())})));
+            }
+            hits[i] = hit;
+        }
+        InternalSearchResponse internal = new InternalSearchResponse(
+                new SearchHits(hits, hitCount, 1.0f), null, null, null, false, null, 1);
+        SearchResponse response = new SearchResponse(internal, null, 3, 3, 0, 5, ShardSearchFailure.EMPTY_ARRAY);
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            response.writeTo(out);
+            return out.bytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 从字节中读出一个新的SearchResponse，每次读出的hit都没有缓存过解析结果
+     */
+    static SearchResponse readSearchResponse(BytesReference bytes) {
+        try (StreamInput in = bytes.streamInput()) {
+            SearchResponse response = new SearchResponse();
+            response.readFrom(in);
+            return response;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
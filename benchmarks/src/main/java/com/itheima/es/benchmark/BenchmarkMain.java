@@ -0,0 +1,44 @@
+package com.itheima.es.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试入口，接受所有JMH命令行参数
+ * <p>
+ * 默认把结果以JSON格式写到target/jmh-result.json，方便在不同提交之间对比；
+ * 没有-Dbench.e2e=true时排除需要集群的BulkThroughputBenchmark。
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("target/jmh-result.json");
+        }
+        if (!Boolean.getBoolean("bench.e2e")) {
+            options.exclude(BulkThroughputBenchmark.class.getSimpleName());
+        }
+        // fork出的JVM不会继承系统属性，把客户端配置(-Des.*)传过去
+        List<String> clientProperties = new ArrayList<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("es.")) {
+                clientProperties.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        if (!clientProperties.isEmpty()) {
+            options.jvmArgsAppend(clientProperties.toArray(new String[0]));
+        }
+        new Runner(options.build()).run();
+    }
+}
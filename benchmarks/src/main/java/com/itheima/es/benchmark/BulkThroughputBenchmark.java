@@ -0,0 +1,81 @@
+package com.itheima.es.benchmark;
+
+import com.itheima.es.Article;
+import com.itheima.es.bulk.ArticleBulkLoader;
+import com.itheima.es.client.ClientHolder;
+import org.elasticsearch.client.transport.TransportClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * 端到端bulk导入吞吐量，需要本地启动的节点，只有-Dbench.e2e=true时才会运行
+ * <p>
+ * 节点地址和集群名通过ClientConfig的系统属性指定，例如 -Des.nodes=127.0.0.1:9300 -Des.cluster.name=elasticsearch，
+ * 结果的单位为docs/sec。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class BulkThroughputBenchmark {
+
+    private static final int DOCS_PER_INVOCATION = 10000;
+    private static final String INDEX = "bench-articles";
+
+    @Param({"500", "2000"})
+    private int bulkActions;
+
+    @Param({"1", "4"})
+    private int concurrentRequests;
+
+    private TransportClient client;
+    private ArticleBulkLoader loader;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        client = ClientHolder.getClient();
+        if (client.admin().indices().prepareExists(INDEX).get().isExists()) {
+            client.admin().indices().prepareDelete(INDEX).get();
+        }
+        client.admin().indices().prepareCreate(INDEX).get();
+        loader = ArticleBulkLoader.builder(client, INDEX, "article")
+                .bulkActions(bulkActions)
+                .concurrentRequests(concurrentRequests)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.admin().indices().prepareDelete(INDEX).get();
+        ClientHolder.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS_PER_INVOCATION)
+    public ArticleBulkLoader.LoadResult bulkLoad() throws Exception {
+        long first = nextId;
+        nextId += DOCS_PER_INVOCATION;
+        Stream<Article> articles = LongStream.range(first, first + DOCS_PER_INVOCATION)
+                .mapToObj(id -> BenchmarkData.article(id, 1));
+        return loader.load(articles);
+    }
+}
@@ -0,0 +1,135 @@
+package com.itheima.es.benchmark;
+
+import com.itheima.es.Article;
+import com.itheima.es.codec.ArticleSerializer;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 比较bulk请求在JSON、SMILE、CBOR三种文档格式以及是否开启传输压缩（transport.tcp.compress）时
+ * 的网络字节数和CPU开销，不需要连接集群
+ * <p>
+ * 客户端开销包括序列化文档、把BulkRequest写成transport消息、压缩；
+ * 服务端开销包括解压、读出BulkRequest、逐个token解析每个文档的_source，近似于节点写入前的解析工作。
+ * 字节数和TcpTransport实际发送的消息体一致（不含固定的消息头），CPU时间为当前线程的CPU时间。
+ * 测试文档除了id之外内容相同，压缩率明显高于真实数据，压缩的收益应以真实文档为准。
+ * <pre>
+ * -Dencoding.docs=1000            每个bulk的文档数
+ * -Dencoding.content.repeat=1     content重复的次数，1约为200个字符
+ * -Dencoding.iterations=200       每种组合测量的次数，之前先预热同样的次数
+ * </pre>
+ * 运行：java -cp target/benchmarks.jar com.itheima.es.benchmark.EncodingReport
+ */
+public class EncodingReport {
+
+    private static final XContentType[] FORMATS = {XContentType.JSON, XContentType.SMILE, XContentType.CBOR};
+
+    private final int docs = Integer.getInteger("encoding.docs", 1000);
+    private final int contentRepeat = Integer.getInteger("encoding.content.repeat", 1);
+    private final int iterations = Integer.getInteger("encoding.iterations", 200);
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Article[] articles = new Article[docs];
+
+    private EncodingReport() {
+        for (int i = 0; i < docs; i++) {
+            articles[i] = BenchmarkData.article(i + 1, contentRepeat);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new EncodingReport().run();
+    }
+
+    private void run() throws IOException {
+        System.out.printf("每个bulk %d个文档，content重复%d次，每种组合测量%d次%n", docs, contentRepeat, iterations);
+        System.out.printf("%-6s %-9s %12s %9s %16s %16s%n",
+                "format", "compress", "bytes/doc", "vs json", "client cpu(us)", "server cpu(us)");
+        long jsonBytes = 0;
+        for (boolean compress : new boolean[]{false, true}) {
+            for (XContentType format : FORMATS) {
+                Result result = measure(format, compress);
+                if (format == XContentType.JSON && !compress) {
+                    jsonBytes = result.bytes;
+                }
+                System.out.printf("%-6s %-9s %12.1f %8.1f%% %16.2f %16.2f%n",
+                        format.shortName(), compress, result.bytes / (double) docs, result.bytes * 100.0 / jsonBytes,
+                        result.clientNanos / 1000.0 / docs, result.serverNanos / 1000.0 / docs);
+            }
+        }
+        System.out.println("cpu为每个文档的平均值，client cpu + server cpu 越小越省CPU，bytes/doc 越小越省带宽");
+    }
+
+    private Result measure(XContentType format, boolean compress) throws IOException {
+        Result result = new Result();
+        for (int i = 0; i < iterations * 2; i++) {
+            boolean measured = i >= iterations;
+            long start = threads.getCurrentThreadCpuTime();
+            BytesReference message = encode(format, compress);
+            long encoded = threads.getCurrentThreadCpuTime();
+            decode(message, compress);
+            long decoded = threads.getCurrentThreadCpuTime();
+            if (measured) {
+                result.bytes = message.length();
+                result.clientNanos += encoded - start;
+                result.serverNanos += decoded - encoded;
+            }
+        }
+        result.clientNanos /= iterations;
+        result.serverNanos /= iterations;
+        return result;
+    }
+
+    /**
+     * 和TcpTransport发送请求时相同：开启压缩时消息体经过deflate压缩
+     */
+    private BytesReference encode(XContentType format, boolean compress) throws IOException {
+        BulkRequest bulk = new BulkRequest();
+        for (Article article : articles) {
+            bulk.add(new IndexRequest("blog2", "article", String.valueOf(article.getId()))
+                    .source(ArticleSerializer.toBytes(article, format), format));
+        }
+        BytesStreamOutput bytes = new BytesStreamOutput();
+        try (StreamOutput out = compress ? CompressorFactory.COMPRESSOR.streamOutput(bytes) : bytes) {
+            bulk.writeTo(out);
+        }
+        return bytes.bytes();
+    }
+
+    private static void decode(BytesReference message, boolean compress) throws IOException {
+        BulkRequest bulk = new BulkRequest();
+        try (StreamInput in = compress
+                ? CompressorFactory.COMPRESSOR.streamInput(message.streamInput()) : message.streamInput()) {
+            bulk.readFrom(in);
+        }
+        for (int i = 0; i < bulk.requests().size(); i++) {
+            IndexRequest request = (IndexRequest) bulk.requests().get(i);
+            try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, request.source(),
+                    request.getContentType())) {
+                while (parser.nextToken() != null) {
+                    if (parser.currentToken().isValue()) {
+                        parser.text();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Result {
+        private long bytes;
+        private long clientNanos;
+        private long serverNanos;
+    }
+}
@@ -0,0 +1,105 @@
+package com.itheima.es.benchmark;
+
+import com.itheima.es.Article;
+import com.itheima.es.search.ArticleHitMapper;
+import com.itheima.es.search.ArticleSearcher;
+import com.itheima.es.search.SearchResult;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 搜索结果映射：SearchHit转Article、高亮片段提取
+ * <p>
+ * SearchHit会缓存getSource()解析出的Map，所以每次调用都从固定的响应字节中重新读出一个SearchResponse，
+ * readOnly给出这部分固定开销，其他结果减去它就是映射本身的开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitMappingBenchmark {
+
+    @Param({"10", "100"})
+    private int hits;
+
+    @Param({"1", "50"})
+    private int contentRepeat;
+
+    private BytesReference response;
+
+    @Setup
+    public void setup() {
+        response = BenchmarkData.cannedSearchResponse(hits, contentRepeat, true);
+    }
+
+    @Benchmark
+    public SearchResponse readOnly() {
+        return BenchmarkData.readSearchResponse(response);
+    }
+
+    /**
+     * SearchIndex原来的写法：getSourceAsString()和getSource()各解析一次
+     */
+    @Benchmark
+    public void sourceAsMap(Blackhole blackhole) {
+        for (SearchHit hit : BenchmarkData.readSearchResponse(response).getHits()) {
+            blackhole.consume(hit.getSourceAsString());
+            Map<String, Object> document = hit.getSource();
+            blackhole.consume(document.get("id"));
+            blackhole.consume(document.get("title"));
+            blackhole.consume(document.get("content"));
+        }
+    }
+
+    @Benchmark
+    public List<Article> streamingMapper() {
+        return ArticleHitMapper.toArticles(BenchmarkData.readSearchResponse(response).getHits());
+    }
+
+    @Benchmark
+    public void streamingMapperReuse(Blackhole blackhole) {
+        ArticleHitMapper.forEach(BenchmarkData.readSearchResponse(response).getHits(), blackhole::consume);
+    }
+
+    /**
+     * SearchIndex.search(QueryBuilder, String)中原来的高亮片段提取
+     */
+    @Benchmark
+    public void highlightLoop(Blackhole blackhole) {
+        for (SearchHit hit : BenchmarkData.readSearchResponse(response).getHits()) {
+            Map<String, Object> document = hit.getSource();
+            blackhole.consume(document.get("title"));
+            HighlightField field = hit.getHighlightFields().get("title");
+            Text[] fragments = field.getFragments();
+            if (fragments != null) {
+                blackhole.consume(fragments[0].toString());
+            }
+        }
+    }
+
+    @Benchmark
+    public SearchResult highlightSearchResult() {
+        return ArticleSearcher.toResult(BenchmarkData.readSearchResponse(response));
+    }
+}
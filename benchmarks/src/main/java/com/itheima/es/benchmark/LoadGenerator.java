@@ -0,0 +1,230 @@
+package com.itheima.es.benchmark;
+
+import com.itheima.es.bulk.ArticleBulkLoader;
+import com.itheima.es.client.AsyncArticleClient;
+import com.itheima.es.client.ClientHolder;
+import com.itheima.es.client.ResilientClient;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
+/**
+ * 按固定QPS对文章索引发送读写混合请求的负载生成器，需要本地启动的节点
+ * <p>
+ * 请求按开环方式调度：第i个请求计划在 开始时间 + i / qps 发送，不等待前面的请求返回，
+ * 延迟从计划发送的时间算起。集群变慢时请求照常到来，排队的时间也计入延迟，
+ * 不会像"发一个等一个"的闭环测试那样因为少发请求而掩盖长尾（coordinated omission）。
+ * <p>
+ * 参数都通过系统属性指定，客户端配置和ClientConfig相同（-Des.nodes等）：
+ * <pre>
+ * -Dload.qps=200                  目标QPS
+ * -Dload.duration=60              测量时长（秒）
+ * -Dload.warmup=10                预热时长（秒），不计入统计
+ * -Dload.mix=term:20,query_string:20,ids:20,highlight:10,match_all:20,index:8,bulk:2
+ *                                 各操作的比例
+ * -Dload.index=blog2              索引，文档少于load.docs时先用bulk写入
+ * -Dload.docs=10000               预置的文档数
+ * -Dload.bulk.size=20             bulk操作每次写入的文档数
+ * -Dload.max.outstanding=1000     最多在途请求数，超过时丢弃并计入drop
+ * -Dload.report.interval=10       区间统计的输出间隔（秒）
+ * -Dload.seed=1                   随机种子，相同的种子产生相同的操作序列
+ * -Dload.resilient=false          是否经过ResilientClient（被拒绝的请求退避重试，在途请求数自适应），用于比较过载时的表现
+ * </pre>
+ * 运行：java -cp target/benchmarks.jar com.itheima.es.benchmark.LoadGenerator -Des.nodes=127.0.0.1:9300
+ */
+public class LoadGenerator {
+
+    private static final String DEFAULT_MIX = "term:20,query_string:20,ids:20,highlight:10,match_all:20,index:8,bulk:2";
+    // 测量结束后等待在途请求返回的最长时间
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Client client;
+    private final String index;
+    private final String type = "article";
+    private final double qps;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long reportIntervalSeconds;
+    private final long docs;
+    private final int maxOutstanding;
+    private final Map<LoadOperation, Integer> mix;
+    private final SplittableRandom random;
+    private final LoadOperation.Workload workload;
+
+    private final Map<LoadOperation, LoadStats> stats = new EnumMap<>(LoadOperation.class);
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    LoadGenerator(Client client) {
+        this.client = client;
+        this.index = System.getProperty("load.index", "blog2");
+        this.qps = Double.parseDouble(System.getProperty("load.qps", "200"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.warmup", 10));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.duration", 60));
+        this.reportIntervalSeconds = Long.getLong("load.report.interval", 10);
+        this.docs = Long.getLong("load.docs", 10000);
+        this.maxOutstanding = Integer.getInteger("load.max.outstanding", 1000);
+        this.mix = parseMix(System.getProperty("load.mix", DEFAULT_MIX));
+        this.random = new SplittableRandom(Long.getLong("load.seed", System.nanoTime()));
+        this.workload = new LoadOperation.Workload(client, index, type, docs, Integer.getInteger("load.bulk.size", 20));
+        for (LoadOperation operation : mix.keySet()) {
+            stats.put(operation, new LoadStats(operation));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try {
+            new LoadGenerator(Boolean.getBoolean("load.resilient")
+                    ? ClientHolder.getResilientClient() : ClientHolder.getClient()).run();
+        } finally {
+            ClientHolder.close();
+        }
+    }
+
+    /**
+     * 解析 名称:权重,名称:权重 格式的操作比例，权重为0的操作不发送
+     */
+    static Map<LoadOperation, Integer> parseMix(String spec) {
+        Map<LoadOperation, Integer> mix = new EnumMap<>(LoadOperation.class);
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("load.mix格式错误：" + entry + "，应为 名称:权重");
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                mix.put(LoadOperation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("load.mix中至少需要一个权重大于0的操作");
+        }
+        return mix;
+    }
+
+    void run() throws Exception {
+        prepareIndex();
+        System.out.printf("目标QPS=%.0f，预热%d秒，测量%d秒，索引=%s，比例=%s%n", qps,
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), TimeUnit.NANOSECONDS.toSeconds(durationNanos), index, mix);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+        reporter.scheduleAtFixedRate(() -> report("区间", reportIntervalSeconds, false),
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+        try {
+            dispatch(start, measureStart, end);
+            drain();
+        } finally {
+            reporter.shutdownNow();
+        }
+        report("总计", TimeUnit.NANOSECONDS.toSeconds(durationNanos), true);
+    }
+
+    /**
+     * 文档不够时先写入预置的文档，搜索的结果数和ids查询命中的文档在每次运行之间保持一致
+     */
+    private void prepareIndex() throws Exception {
+        boolean exists = client.admin().indices().prepareExists(index).get().isExists();
+        long count = exists ? client.prepareSearch(index).setTypes(type).setSize(0).get().getHits().getTotalHits() : 0;
+        if (count >= docs) {
+            return;
+        }
+        ArticleBulkLoader loader = ArticleBulkLoader.builder(client, index, type)
+                .bulkActions(1000)
+                .flushInterval(TimeValue.timeValueSeconds(1))
+                .build();
+        System.out.println("写入预置文档：" + loader.load(LongStream.rangeClosed(1, docs).mapToObj(LoadOperation.Workload::article)));
+        client.admin().indices().prepareRefresh(index).get();
+    }
+
+    /**
+     * 调度线程按计划时间发送请求，落后时立即补发，不跳过任何一个计划
+     */
+    private void dispatch(long start, long measureStart, long end) {
+        LoadOperation[] operations = mix.keySet().toArray(new LoadOperation[0]);
+        int[] cumulative = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulative[i] = total;
+        }
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / qps;
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * intervalNanos);
+            if (intended - end >= 0) {
+                return;
+            }
+            long delay;
+            while ((delay = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            int pick = random.nextInt(total);
+            int chosen = 0;
+            while (cumulative[chosen] <= pick) {
+                chosen++;
+            }
+            send(operations[chosen], intended, intended - measureStart >= 0);
+        }
+    }
+
+    private void send(LoadOperation operation, long intended, boolean measured) {
+        LoadStats operationStats = stats.get(operation);
+        if (outstanding.incrementAndGet() > maxOutstanding) {
+            outstanding.decrementAndGet();
+            if (measured) {
+                operationStats.recordDropped();
+            }
+            return;
+        }
+        long sent = System.nanoTime();
+        AsyncArticleClient.execute(operation.prepare(workload, random)).whenComplete((response, failure) -> {
+            long done = System.nanoTime();
+            outstanding.decrementAndGet();
+            if (!measured) {
+                return;
+            }
+            if (failure != null) {
+                operationStats.recordFailure(intended, sent, done);
+            } else {
+                operationStats.recordSuccess(intended, sent, done);
+            }
+        });
+    }
+
+    private void drain() {
+        long deadline = System.nanoTime() + DRAIN_NANOS;
+        while (outstanding.get() > 0 && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        if (outstanding.get() > 0) {
+            System.out.println("仍有" + outstanding.get() + "个请求没有返回，不计入统计");
+        }
+    }
+
+    private synchronized void report(String title, double seconds, boolean total) {
+        StringBuilder report = new StringBuilder(title).append(System.lineSeparator()).append(LoadStats.header());
+        for (LoadStats operationStats : stats.values()) {
+            String interval = operationStats.interval(seconds);
+            report.append(total ? operationStats.total(seconds) : interval).append(System.lineSeparator());
+        }
+        if (total && client instanceof ResilientClient) {
+            report.append(client).append(System.lineSeparator());
+        }
+        System.out.print(report);
+    }
+}
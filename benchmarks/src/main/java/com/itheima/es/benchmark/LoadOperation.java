@@ -0,0 +1,140 @@
+package com.itheima.es.benchmark;
+
+import com.itheima.es.Article;
+import com.itheima.es.codec.ArticleSerializer;
+import com.itheima.es.index.EntityRouting;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 混合负载中的一种操作，搜索和SearchIndex中的示例相同，写入和ElasticSearchClientTest中的示例相同
+ */
+enum LoadOperation {
+
+    TERM(false) {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random) {
+            return workload.search().setQuery(QueryBuilders.termQuery("content", "搜索"));
+        }
+    },
+    QUERY_STRING(false) {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random) {
+            return workload.search().setQuery(QueryBuilders.queryStringQuery("搜索"));
+        }
+    },
+    IDS(false) {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random) {
+            return workload.search().setQuery(QueryBuilders.idsQuery()
+                    .addIds(workload.randomId(random), workload.randomId(random)));
+        }
+    },
+    HIGHLIGHT(false) {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random) {
+            HighlightBuilder highlight = new HighlightBuilder()
+                    .preTags("<font style='color:red'>")
+                    .postTags("</font>")
+                    .field("title");
+            return workload.search().setQuery(QueryBuilders.termQuery("title", "搜索")).highlighter(highlight);
+        }
+    },
+    MATCH_ALL(false) {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random) {
+            // 随机翻到前10页中的一页
+            return workload.search().setQuery(QueryBuilders.matchAllQuery()).setFrom(random.nextInt(10) * 10).setSize(10);
+        }
+    },
+    INDEX(true) {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random) {
+            return workload.index(workload.nextArticle());
+        }
+    },
+    BULK(true) {
+        @Override
+        ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random) {
+            BulkRequestBuilder bulk = workload.client.prepareBulk();
+            for (int i = 0; i < workload.bulkSize; i++) {
+                bulk.add(workload.index(workload.nextArticle()));
+            }
+            return bulk;
+        }
+    };
+
+    private final boolean write;
+
+    LoadOperation(boolean write) {
+        this.write = write;
+    }
+
+    boolean isWrite() {
+        return write;
+    }
+
+    /**
+     * 构造一个请求，在调度线程中调用
+     */
+    abstract ActionRequestBuilder<?, ?, ?> prepare(Workload workload, SplittableRandom random);
+
+    /**
+     * 负载作用的索引和数据范围
+     */
+    static final class Workload {
+        private static final String[] CATEGORIES = {"java", "search"};
+
+        private final Client client;
+        private final String index;
+        private final String type;
+        private final long docs;
+        private final int bulkSize;
+        // 新写入的文档从预置的文档之后编号，不覆盖搜索用到的文档
+        private final AtomicLong nextId;
+
+        Workload(Client client, String index, String type, long docs, int bulkSize) {
+            this.client = client;
+            this.index = index;
+            this.type = type;
+            this.docs = docs;
+            this.bulkSize = bulkSize;
+            this.nextId = new AtomicLong(docs + 1);
+        }
+
+        /**
+         * 预置的第id篇文档
+         */
+        static Article article(long id) {
+            Article article = BenchmarkData.article(id, 1);
+            article.setCategory(CATEGORIES[(int) (id % CATEGORIES.length)]);
+            return article;
+        }
+
+        private Article nextArticle() {
+            return article(nextId.getAndIncrement());
+        }
+
+        private String randomId(SplittableRandom random) {
+            return String.valueOf(random.nextLong(docs) + 1);
+        }
+
+        private SearchRequestBuilder search() {
+            return client.prepareSearch(index).setTypes(type);
+        }
+
+        private IndexRequestBuilder index(Article article) {
+            return client.prepareIndex(index, type, String.valueOf(article.getId()))
+                    .setRouting(EntityRouting.routingOf(article))
+                    .setSource(ArticleSerializer.toBytes(article), ArticleSerializer.contentType());
+        }
+    }
+}
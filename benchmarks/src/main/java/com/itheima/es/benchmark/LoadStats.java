@@ -0,0 +1,103 @@
+package com.itheima.es.benchmark;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 负载测试中一种操作的统计
+ * <p>
+ * 同时记录两种延迟：响应时间从计划发送的时间算起，包含请求在客户端排队等待的时间，是用户实际感受到的延迟；
+ * 服务时间从实际发送的时间算起，和ClientMetrics中的延迟相同。两者差距大说明客户端或集群已经跟不上目标QPS。
+ * 直方图单位为微秒，精度3位有效数字，超过10分钟的值按10分钟记录。
+ */
+final class LoadStats {
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LoadOperation operation;
+    private final Recorder response = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private final Recorder service = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram responseTotal = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram serviceTotal = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private Histogram responseInterval;
+    private Histogram serviceInterval;
+
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private long errorsTotal;
+    private long droppedTotal;
+
+    LoadStats(LoadOperation operation) {
+        this.operation = operation;
+    }
+
+    void recordSuccess(long intendedNanos, long sentNanos, long doneNanos) {
+        response.recordValue(micros(doneNanos - intendedNanos));
+        service.recordValue(micros(doneNanos - sentNanos));
+    }
+
+    /**
+     * 失败的请求也计入延迟，超时失败的请求往往正是最慢的那些
+     */
+    void recordFailure(long intendedNanos, long sentNanos, long doneNanos) {
+        recordSuccess(intendedNanos, sentNanos, doneNanos);
+        errors.increment();
+    }
+
+    /**
+     * 在途请求达到上限、没有发送的请求
+     */
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    private static long micros(long nanos) {
+        return Math.max(0, Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_MICROS));
+    }
+
+    /**
+     * 取出上次调用之后的区间统计并累加到总计中，返回区间统计
+     */
+    synchronized String interval(double seconds) {
+        responseInterval = response.getIntervalHistogram(responseInterval);
+        serviceInterval = service.getIntervalHistogram(serviceInterval);
+        responseTotal.add(responseInterval);
+        serviceTotal.add(serviceInterval);
+        long intervalErrors = errors.sumThenReset();
+        long intervalDropped = dropped.sumThenReset();
+        errorsTotal += intervalErrors;
+        droppedTotal += intervalDropped;
+        return format(responseInterval, serviceInterval, intervalErrors, intervalDropped, seconds);
+    }
+
+    /**
+     * 从开始测量到现在的总计，需要先调用interval把最后一个区间累加进来
+     */
+    synchronized String total(double seconds) {
+        return format(responseTotal, serviceTotal, errorsTotal, droppedTotal, seconds);
+    }
+
+    static String header() {
+        return String.format("%-13s %8s %6s %6s %9s %9s %9s %9s %9s %9s %11s %11s%n",
+                "operation", "count", "errors", "drop", "ops/s", "p50(ms)", "p90", "p99", "p999", "max",
+                "svc p50", "svc p99");
+    }
+
+    private String format(Histogram response, Histogram service, long errors, long dropped, double seconds) {
+        long count = response.getTotalCount();
+        return String.format("%-13s %8d %6d %6d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %11.2f %11.2f",
+                operation.name().toLowerCase(Locale.ROOT), count, errors, dropped, seconds <= 0 ? 0 : count / seconds,
+                millis(response, 50), millis(response, 90), millis(response, 99), millis(response, 99.9),
+                count == 0 ? 0 : response.getMaxValue() / 1000.0,
+                millis(service, 50), millis(service, 99));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,75 @@
+package com.itheima.es.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.es.Article;
+import com.itheima.es.codec.ArticleSerializer;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Article写入前的序列化：原来每次new ObjectMapper再转String的写法、共享ObjectWriter直接写字节、
+ * 以及testAddDocument中手工构建XContentBuilder的写法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    // content重复的次数，1约为200个字符，50约为1万个字符
+    @Param({"1", "50"})
+    private int contentRepeat;
+
+    private Article article;
+
+    @Setup
+    public void setup() {
+        article = BenchmarkData.article(42, contentRepeat);
+    }
+
+    /**
+     * testAddDocument2原来的写法：每个文档new一个ObjectMapper，转成String后再编码成字节
+     */
+    @Benchmark
+    public BytesReference objectMapperPerDocument() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(article);
+        return new BytesArray(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public BytesReference sharedSerializer() {
+        return ArticleSerializer.toBytes(article);
+    }
+
+    /**
+     * testAddDocument中手工构建文档的写法
+     */
+    @Benchmark
+    public BytesReference xContentBuilder() throws Exception {
+        XContentBuilder builder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field("id", article.getId())
+                .field("title", article.getTitle())
+                .field("content", article.getContent())
+                .endObject();
+        return builder.bytes();
+    }
+}
@@ -1,9 +1,17 @@
 package com.itheima.es;
 
+import com.itheima.es.index.IndexSettings;
+import com.itheima.es.index.Routing;
+
+// 索引的分片数和副本数，IndexAdmin.createIndex创建索引时使用
+@IndexSettings(shards = 5, replicas = 1)
 public class Article {
     private long id;
     private String title;
     private String content;
+    // 分类，作为routing，同一分类的文章在同一个分片上
+    @Routing
+    private String category;
 
     public long getId() {
         return id;
@@ -29,12 +37,21 @@ public class Article {
         this.content = content;
     }
 
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
     @Override
     public String toString() {
         return "Article{" +
                 "id=" + id +
                 ", title='" + title + '\'' +
                 ", content='" + content + '\'' +
+                ", category='" + category + '\'' +
                 '}';
     }
 }
@@ -1,33 +1,43 @@
 package com.itheima.es;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import com.itheima.es.bulk.ArticleBulkLoader;
+import com.itheima.es.bulk.ArticleUpdateBuffer;
+import com.itheima.es.bulk.BulkLoadSession;
+import com.itheima.es.client.AsyncArticleClient;
+import com.itheima.es.client.ClientHolder;
+import com.itheima.es.client.NodeSelector;
+import com.itheima.es.codec.ArticleSerializer;
+import com.itheima.es.index.EntityRouting;
+import com.itheima.es.index.IndexAdmin;
+import com.itheima.es.index.RolloverManager;
+import com.itheima.es.reindex.ArticleReindexer;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class ElasticSearchClientTest {
 
-    private TransportClient client;
+    private Client client;
 
     @Before
     public void init() throws Exception {
-        //创建一个Settings对象
-        Settings settings = Settings.builder()
-                .put("cluster.name", "my-elasticsearch")
-                .build();
-        //创建一个TransPortClient对象
-        client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9301))
-                .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9302))
-                .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9303));
+        //从ClientHolder借用进程内共享的client，由ClientHolder负责关闭；线程池满被拒绝的请求会自动退避重试
+        client = ClientHolder.getResilientClient();
     }
 
     /**
@@ -35,21 +45,8 @@ public class ElasticSearchClientTest {
      */
     @Test
     public void testCreateIndex() throws Exception {
-
-        // 1、创建一个Settings对象，相当于是一个配置信息。主要配置集群的名称。
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-
-        // 2、创建一个客户端Client对象
-        TransportClient client = new PreBuiltTransportClient(settings);
-        client.addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
-        client.addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9302));
-        client.addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9303));
-
-        // 3、使用client对象创建一个索引库，名称为 blog2
-        client.admin().indices().prepareCreate("blog2").get();
-
-        // 4、关闭client对象
-        client.close();
+        // 使用共享的client对象创建一个索引库，名称为 blog2，分片数和副本数取自Article上的@IndexSettings
+        IndexAdmin.createIndex(client, "blog2", Article.class);
     }
 
     /**
@@ -57,21 +54,14 @@ public class ElasticSearchClientTest {
      */
     @Test
     public void testSetMappings() throws Exception {
-
-        // 1、创建一个Settings对象，相当于是一个配置信息。主要配置集群的名称。
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-
-        // 2、创建一个客户端Client对象
-        TransportClient client = new PreBuiltTransportClient(settings);
-        client.addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
-        client.addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9302));
-        client.addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9303));
-
         //创建一个Mappings信息,添加映射
 
         /*
             {
                 "article": {
+                    "_routing": {
+                        "required": true
+                    },
                     "properties": {
                         "id": {
                             "type": "long",
@@ -81,13 +71,32 @@ public class ElasticSearchClientTest {
                             "type": "text",
                             "store": true,
                             "index": true,
-                            "analyzer": "ik_smart"
+                            "analyzer": "ik_smart",
+                            "fielddata": true,
+                            "term_vector": "with_positions_offsets",
+                            "fields": {
+                                "suggest": {
+                                    "type": "completion",
+                                    "contexts": [
+                                        {
+                                            "name": "category",
+                                            "type": "category",
+                                            "path": "category"
+                                        }
+                                    ]
+                                }
+                            }
                         },
                         "content": {
                             "type": "text",
                             "store": true,
                             "index": true,
-                            "analyzer": "ik_smart"
+                            "analyzer": "ik_smart",
+                            "index_options": "offsets"
+                        },
+                        "category": {
+                            "type": "keyword",
+                            "store": true
                         }
                     }
                 }
@@ -96,6 +105,10 @@ public class ElasticSearchClientTest {
         XContentBuilder builder = XContentFactory.jsonBuilder()
                 .startObject()
                 .startObject("article")
+                // 文章按category路由，不带routing的写入和get直接被拒绝，同一个id不会写到两个分片上
+                .startObject("_routing")
+                .field("required", true)
+                .endObject()
                 .startObject("properties")
                 .startObject("id")
                 .field("type", "long")
@@ -105,11 +118,35 @@ public class ElasticSearchClientTest {
                 .field("type", "text")
                 .field("store", true)
                 .field("analyzer", "ik_smart")
+                // 开启fielddata才能对title的词条做terms聚合，title较短，占用的堆内存有限
+                .field("fielddata", true)
+                // 保存词的位置和偏移量，高亮时使用fvh，不用重新分词
+                .field("term_vector", "with_positions_offsets")
+                // 输入提示使用的completion子字段，由ES从title自动生成，分类上下文取自category字段
+                .startObject("fields")
+                .startObject("suggest")
+                .field("type", "completion")
+                .startArray("contexts")
+                .startObject()
+                .field("name", "category")
+                .field("type", "category")
+                .field("path", "category")
+                .endObject()
+                .endArray()
+                .endObject()
+                .endObject()
                 .endObject()
                 .startObject("content")
                 .field("type", "text")
                 .field("store", true)
                 .field("analyzer", "ik_smart")
+                // content很长，term vector占用的磁盘太多，只在倒排索引中保存偏移量，高亮时使用unified
+                .field("index_options", "offsets")
+                .endObject()
+                // 分类不分词，同时作为文档的routing
+                .startObject("category")
+                .field("type", "keyword")
+                .field("store", true)
                 .endObject()
                 .endObject()
                 .endObject()
@@ -124,8 +161,6 @@ public class ElasticSearchClientTest {
                 .setSource(builder)
                 // 执行操作
                 .get();
-        // 关闭链接
-        client.close();
     }
 
     /**
@@ -142,6 +177,7 @@ public class ElasticSearchClientTest {
                 .field("content", "它提供了一个分布式多用户能力的全文搜索引擎，基于RESTful web接口。Elasticsearch是用\n" +
                         "Java开发的，并作为Apache许可条款下的开放源码发布，是当前流行的企业级搜索引擎。设计用于云计算中，能够达到\n" +
                         "实时搜索，稳定，可靠，快速，安装使用方便。")
+                .field("category", "search")
                 .endObject();
 
         // 把文档对象添加到索引库
@@ -152,12 +188,12 @@ public class ElasticSearchClientTest {
                 .setType("article")
                 // 设置文档的id，如果不设置的话自动的生成一个id
                 .setId("1")
+                // 分类同时是routing，mapping要求每个文档都带routing
+                .setRouting("search")
                 // 设置文档信息
                 .setSource(builder)
                 //执行操作
                 .get();
-        // 关闭客户端
-        client.close();
     }
 
     /**
@@ -172,54 +208,199 @@ public class ElasticSearchClientTest {
         // {id:xxx, title:xxx, content:xxx}
         article.setId(2l);
         article.setTitle("搜索工作其实很快乐");
+        article.setCategory("java");
         article.setContent("我们希望我们的搜索解决方案要快，我们希望有一个零配置和一个完全免费的搜索模式，\n" +
                 "我们希望能够简单地使用JSON通过HTTP的索引数据，我们希望我们的搜索服务器始终可用，我们希望能够一台开始并扩\n" +
                 "展到数百，我们要实时搜索，我们要简单的多租户，我们希望建立一个云的解决方案。Elasticsearch旨在解决所有这\n" +
                 "些问题和更多的问题。");
 
-        // 把article对象转换成json格式的字符串
-        ObjectMapper objectMapper = new ObjectMapper();
-        String jsonDocument = objectMapper.writeValueAsString(article);
-        System.out.println(jsonDocument);
+        // 把article对象直接序列化成json字节，不经过中间的String
+        BytesReference jsonDocument = ArticleSerializer.toBytes(article);
+        // 默认格式可以通过-Des.source.format改成smile或cbor，打印前统一转换成JSON
+        System.out.println(XContentHelper.convertToJson(jsonDocument, false, ArticleSerializer.contentType()));
 
         // 使用client对象把文档写入索引库
         // id为String类型的话，可以通过article.getId().toString()设置
         client.prepareIndex("blog2", "article", "2")
-                .setSource(jsonDocument, XContentType.JSON)
+                .setRouting(EntityRouting.routingOf(article))
+                .setSource(jsonDocument, ArticleSerializer.contentType())
                 .get();
-        //关闭客户端
-        client.close();
     }
 
     /**
-     * 批量插入100条数据
+     * 局部更新，只修改title，不再重新写入整篇文章
      */
     @Test
-    public void testAddDocument3() throws Exception {
+    public void testUpdateDocument() throws Exception {
+        AsyncArticleClient asyncClient = new AsyncArticleClient(client, "blog2", "article", 16);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("title", "搜索工作其实很快乐（更新）");
+        // 第二次更新的值没有变化，返回NOOP
+        System.out.println(asyncClient.update("2", "java", fields).get().getResult());
+        System.out.println(asyncClient.update("2", "java", fields).get().getResult());
 
-        ObjectMapper objectMapper = new ObjectMapper();
+        // 同一篇文章在窗口内的多次更新合并成一次，所有文章的更新在一个bulk中发送
+        ArticleUpdateBuffer buffer = new ArticleUpdateBuffer(client, "blog2", "article", 500, 1000);
+        try {
+            for (int i = 0; i < 100; i++) {
+                long id = 3 + i % 10;
+                buffer.update(String.valueOf(id), id % 2 == 0 ? "java" : "search",
+                        Collections.singletonMap("title", "搜索工作其实很快乐" + id + "（第" + i + "次编辑）"));
+            }
+        } finally {
+            // 发送剩余的更新并等待完成
+            buffer.close();
+        }
+        System.out.println(buffer);
+    }
 
-        for (int i = 3; i <= 100; i++) {
+    /**
+     * 批量插入100条数据
+     */
+    @Test
+    public void testAddDocument3() throws Exception {
+        // 生成文档流，由BulkProcessor按批提交，而不是每条文档一次请求
+        Stream<Article> articles = IntStream.rangeClosed(3, 100).mapToObj(i -> {
             // 创建一个Article对象
             Article article = new Article();
 
             // 描述json 数据,设置对象的属性
             article.setId(i);
             article.setTitle("搜索工作其实很快乐" + i);
+            // 分类同时是routing，同一分类的文章写入同一个分片
+            article.setCategory(i % 2 == 0 ? "java" : "search");
             article.setContent("我们希望我们的搜索解决方案要快，我们希望有一个零配置和一个完全免费的搜索模式，\n" +
                     "我们希望能够简单地使用JSON通过HTTP的索引数据，我们希望我们的搜索服务器始终可用，我们希望能够一台开始并扩\n" +
                     "展到数百，我们要实时搜索，我们要简单的多租户，我们希望建立一个云的解决方案。Elasticsearch旨在解决所有这\n" +
                     "些问题和更多的问题。" + i);
+            return article;
+        });
 
-            // 把article对象转换成json格式的字符串。
-            String jsonDocument = objectMapper.writeValueAsString(article);
-            System.out.println(jsonDocument);
-            // 使用client对象把文档写入索引库
-            client.prepareIndex("blog2", "article", i + "")
-                    .setSource(jsonDocument, XContentType.JSON)
-                    .get();
+        ArticleBulkLoader loader = ArticleBulkLoader.builder(client, "blog2", "article")
+                .bulkActions(50)
+                .concurrentRequests(1)
+                .build();
+        // 导入期间关闭刷新和副本，结束后恢复原设置并等待索引变为green
+        BulkLoadSession session = BulkLoadSession.start(client, "blog2");
+        try {
+            // 导入完成后打印 docs/sec 和 MB/sec
+            System.out.println(loader.load(articles));
+        } finally {
+            session.close();
         }
-        //释放资源
-        client.close();
+    }
+
+    /**
+     * 以SMILE和CBOR格式写入文档，比较和JSON的大小，并读回确认内容一致
+     */
+    @Test
+    public void testAddDocumentBinary() throws Exception {
+        Article article = new Article();
+        article.setId(101);
+        article.setTitle("搜索工作其实很快乐101");
+        article.setCategory("search");
+        article.setContent("我们希望我们的搜索解决方案要快，我们希望有一个零配置和一个完全免费的搜索模式。");
+        for (XContentType type : new XContentType[]{XContentType.JSON, XContentType.SMILE, XContentType.CBOR}) {
+            System.out.println(type + "：" + ArticleSerializer.toBytes(article, type).length() + "字节");
+        }
+
+        // 101-110用SMILE写入，读取时ArticleHitMapper会自动识别_source的格式
+        ArticleBulkLoader loader = ArticleBulkLoader.builder(client, "blog2", "article")
+                .contentType(XContentType.SMILE)
+                .build();
+        System.out.println(loader.load(IntStream.rangeClosed(101, 110).mapToObj(i -> {
+            Article copy = new Article();
+            copy.setId(i);
+            copy.setTitle("搜索工作其实很快乐" + i);
+            copy.setCategory(i % 2 == 0 ? "java" : "search");
+            copy.setContent(article.getContent());
+            return copy;
+        })));
+        // 单条写入使用CBOR
+        AsyncArticleClient asyncClient = new AsyncArticleClient(client, "blog2", "article", 16)
+                .setContentType(XContentType.CBOR);
+        asyncClient.index(article).get();
+        System.out.println(asyncClient.get("101", "search").get().orElse(null));
+        System.out.println(asyncClient.get("102", "java").get().orElse(null));
+    }
+
+    /**
+     * 把blog2的文章复制到blog3（spring data中Article映射的索引），4个slice并行读取，
+     * 中途失败后重新运行会跳过checkpoint文件中已完成的slice。
+     * blog3由RolloverManager管理，是指向多个后备索引的读别名，所以写入写别名blog3-write
+     */
+    @Test
+    public void testReindex() throws Exception {
+        ArticleReindexer reindexer = ArticleReindexer.builder(client, "blog2", "article", "blog3-write", "article")
+                .slices(4)
+                .bulkActions(500)
+                // 复制时可以修改文档，返回null表示不复制
+                .transform(article -> {
+                    article.setTitle(article.getTitle().trim());
+                    return article;
+                })
+                .maxDocsPerSecond(5000)
+                .checkpoint(Paths.get(System.getProperty("java.io.tmpdir"), "reindex-blog2-blog3.checkpoint"))
+                .build();
+        BulkLoadSession session = BulkLoadSession.start(client, "blog3-write");
+        try {
+            System.out.println(reindexer.run());
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * 按别名滚动的索引：写入articles-write，查询articles，热索引超过1000篇文章、5GB或7天时rollover，
+     * 旧索引shrink成1个分片并force merge。已有的blog2也可以这样管理，migrate会把文章复制到blog2-000001并把blog2换成别名
+     */
+    @Test
+    public void testRollover() throws Exception {
+        try (RolloverManager rollover = RolloverManager.builder(client, "articles", "article")
+                .settings(IndexAdmin.settingsOf(Article.class))
+                .maxDocs(1000)
+                .maxSize(new ByteSizeValue(5, ByteSizeUnit.GB))
+                .maxAge(TimeValue.timeValueHours(7 * 24))
+                .build()) {
+            rollover.bootstrap();
+            ArticleBulkLoader loader = ArticleBulkLoader.builder(client, rollover.getWriteAlias(), "article").build();
+            System.out.println(loader.load(IntStream.rangeClosed(1, 1500).mapToObj(i -> {
+                Article article = new Article();
+                article.setId(i);
+                article.setTitle("搜索工作其实很快乐" + i);
+                article.setCategory(i % 2 == 0 ? "java" : "search");
+                article.setContent("我们希望我们的搜索解决方案要快。" + i);
+                return article;
+            })));
+            // rollover的文档数只统计已经refresh的文档
+            client.admin().indices().prepareRefresh(rollover.getWriteAlias()).get();
+            System.out.println("新的热索引：" + rollover.rollover());
+            System.out.println("处理过的旧索引：" + rollover.optimize());
+            // 生产环境中定时执行：rollover.start(TimeValue.timeValueMinutes(5))
+            System.out.println("读别名中的文章数：" + client.prepareSearch(rollover.getReadAlias())
+                    .setSize(0).get().getHits().getTotalHits());
+        }
+    }
+
+    /**
+     * 过载时的写入：8个BulkProcessor同时写入blog2，超过节点bulk线程池队列时被拒绝的文档由ResilientClient退避后重发，
+     * 在途请求数自动降低。节点的thread_pool.bulk.queue_size调小（例如10）时更容易看到效果
+     */
+    @Test
+    public void testOverload() throws Exception {
+        ArticleBulkLoader loader = ArticleBulkLoader.builder(client, "blog2", "article")
+                .bulkActions(100)
+                .concurrentRequests(8)
+                .build();
+        System.out.println(loader.load(IntStream.rangeClosed(1, 20000).mapToObj(i -> {
+            Article article = new Article();
+            article.setId(i);
+            article.setTitle("搜索工作其实很快乐" + i);
+            article.setCategory(i % 2 == 0 ? "java" : "search");
+            article.setContent("我们希望我们的搜索解决方案要快。" + i);
+            return article;
+        })));
+        System.out.println(client);
+        System.out.println(NodeSelector.global().report());
     }
 }
\ No newline at end of file
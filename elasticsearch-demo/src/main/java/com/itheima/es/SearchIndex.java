@@ -1,40 +1,47 @@
 package com.itheima.es;
 
+import com.itheima.es.client.ArticleBatcher;
+import com.itheima.es.client.AsyncArticleClient;
+import com.itheima.es.client.ClientHolder;
+import com.itheima.es.client.NodeSelector;
+import com.itheima.es.metrics.ClientMetrics;
+import com.itheima.es.search.AggregationResult;
+import com.itheima.es.search.ArticleHitMapper;
+import com.itheima.es.search.ArticleQuery;
+import com.itheima.es.search.ArticleSearcher;
+import com.itheima.es.search.HighlightOptions;
+import com.itheima.es.search.QueryResultCache;
+import com.itheima.es.search.SearchCoalescer;
+import com.itheima.es.search.SearchResult;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.common.text.Text;
-import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
-import org.elasticsearch.transport.client.PreBuiltTransportClient;
+import org.elasticsearch.search.sort.SortOrder;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.net.InetAddress;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class SearchIndex {
-    private TransportClient client;
+    private Client client;
+    private ArticleSearcher searcher;
 
     @Before
     public void init() throws Exception {
-        //创建一个Settings对象
-        Settings settings = Settings.builder()
-                .put("cluster.name", "my-elasticsearch")
-                .build();
-        //创建一个TransPortClient对象
-        client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9301))
-                .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9302))
-                .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("127.0.0.1"), 9303));
-
+        //从ClientHolder借用进程内共享的client，由ClientHolder负责关闭；线程池满被拒绝的请求会自动退避重试
+        client = ClientHolder.getResilientClient();
+        searcher = new ArticleSearcher(client, "blog2", "article");
     }
 
     /**
@@ -52,20 +59,14 @@ public class SearchIndex {
         // 3、遍历搜索结果数据
         SearchHits hits = searchResponse.getHits(); // 获取命中次数，查询结果有多少对象
         System.out.println("查询结果有：" + hits.getTotalHits() + "条");
-        Iterator<SearchHit> iterator = hits.iterator();
-        while (iterator.hasNext()) {
-            SearchHit searchHit = iterator.next(); // 每个查询对象
-            System.out.println(searchHit.getSourceAsString()); // 获取字符串格式打印，以json格式输出
+        // 流式解析每个查询对象的_source，复用同一个Article对象，不再构建Map和json字符串
+        ArticleHitMapper.forEach(hits, article -> {
             // 取文档属性
             System.out.println("-----------文档的属性");
-            Map<String, Object> document = searchHit.getSource();
-            System.out.println("id：" + document.get("id"));
-            System.out.println("title：" + document.get("title"));
-            System.out.println("content：" + document.get("content"));
-        }
-
-        // 4、释放资源
-        client.close();
+            System.out.println("id：" + article.getId());
+            System.out.println("title：" + article.getTitle());
+            System.out.println("content：" + article.getContent());
+        });
     }
 
     /**
@@ -81,20 +82,14 @@ public class SearchIndex {
         // 3、遍历搜索结果数据
         SearchHits hits = searchResponse.getHits(); // 获取命中次数，查询结果有多少对象
         System.out.println("查询结果有：" + hits.getTotalHits() + "条");
-        Iterator<SearchHit> iterator = hits.iterator();
-        while (iterator.hasNext()) {
-            SearchHit searchHit = iterator.next(); // 每个查询对象
-            System.out.println(searchHit.getSourceAsString()); // 获取字符串格式打印，以json格式输出
+        // 流式解析每个查询对象的_source，复用同一个Article对象，不再构建Map和json字符串
+        ArticleHitMapper.forEach(hits, article -> {
             // 取文档属性
             System.out.println("-----------文档的属性");
-            Map<String, Object> document = searchHit.getSource();
-            System.out.println("id：" + document.get("id"));
-            System.out.println("title：" + document.get("title"));
-            System.out.println("content：" + document.get("content"));
-        }
-
-        // 4、释放资源
-        client.close();
+            System.out.println("id：" + article.getId());
+            System.out.println("title：" + article.getTitle());
+            System.out.println("content：" + article.getContent());
+        });
     }
 
     /**
@@ -115,11 +110,12 @@ public class SearchIndex {
     public void test4() throws Exception {
         // 创建Client连接对象
         // 搜索数据
-        HighlightBuilder hiBuilder = new HighlightBuilder();
-        //设置高亮数据
-        hiBuilder.preTags("<font style='color:red'>");
-        hiBuilder.postTags("</font>");
-        hiBuilder.field("title");
+        //设置高亮数据，title的mapping中有term vector，使用fvh高亮器，不再对每个hit重新分词
+        HighlightBuilder hiBuilder = HighlightOptions.defaults()
+                .tags("<font style='color:red'>", "</font>")
+                .fragmentSize(50)
+                .numberOfFragments(1)
+                .toBuilder("title");
         SearchResponse searchResponse = client
                 .prepareSearch("blog2").setTypes("article")
                 .setQuery(QueryBuilders.termQuery("title", "搜索"))
@@ -137,13 +133,42 @@ public class SearchIndex {
             System.out.println("Map方式打印高亮内容");
             System.out.println(hit.getHighlightFields());
             System.out.println("遍历高亮集合，打印高亮片段:");
-            Text[] text = hit.getHighlightFields().get("title").getFragments();
-            for (Text str : text) {
+            // 没有高亮结果时hit中没有该字段
+            HighlightField title = hit.getHighlightFields().get("title");
+            if (title == null || title.getFragments() == null) {
+                continue;
+            }
+            for (Text str : title.getFragments()) {
                 System.out.println(str);
             }
         }
-        //释放资源
-        client.close();
+    }
+
+    /**
+     * 长文章的高亮：content使用unified高亮器读取倒排索引中的偏移量，最多返回2个片段；没有命中content的文档返回开头的50个字符
+     */
+    @Test
+    public void testHighlightContent() throws Exception {
+        SearchResult result = searcher.search(ArticleQuery.of(QueryBuilders.queryStringQuery("搜索"))
+                .size(5)
+                .highlight("content", HighlightOptions.defaults().numberOfFragments(2).noMatchSize(50)));
+        for (Article article : result.getArticles()) {
+            System.out.println(article.getId() + "：" + result.getHighlight(article, "content"));
+        }
+    }
+
+    /**
+     * 搜索框的输入提示，每次按键从completion字段的FST中按前缀查找，不再发送queryStringQuery
+     */
+    @Test
+    public void testSuggest() throws Exception {
+        System.out.println(searcher.suggest("搜索", 5));
+        // 只提示java分类，只查询java所在的分片
+        System.out.println(searcher.suggest("搜索", 5, true, "java"));
+        // 拼写错误也能提示
+        System.out.println(searcher.suggest("elsatic", 5));
+        AsyncArticleClient asyncClient = new AsyncArticleClient(client, "blog2", "article", 16);
+        System.out.println(asyncClient.suggest("搜索工作", 3).get());
     }
 
     /**
@@ -162,112 +187,212 @@ public class SearchIndex {
      */
     @Test
     public void test2() throws Exception {
-        // 创建Client连接对象
-        // 搜索数据
-        SearchResponse searchResponse = client.prepareSearch("blog2")
-                .setTypes("article")
-                .setQuery(QueryBuilders.matchAllQuery())//默认每页10条记录
-                // 查询第2页数据，每页20条
-                //setFrom()：从第几条开始检索，默认是0。
-                //setSize():每页最多显示的记录数。
-                .setFrom(0).setSize(5)
-                .get();
-        // 3、遍历搜索结果数据
-        SearchHits hits = searchResponse.getHits(); // 获取命中次数，查询结果有多少对象
-        System.out.println("查询结果有：" + hits.getTotalHits() + "条");
-        Iterator<SearchHit> iterator = hits.iterator();
-        while (iterator.hasNext()) {
-            SearchHit searchHit = iterator.next(); // 每个查询对象
-            System.out.println(searchHit.getSourceAsString()); // 获取字符串格式打印，以json格式输出
-            // 取文档属性
-            System.out.println("-----------文档的属性");
-            Map<String, Object> document = searchHit.getSource();
-            System.out.println("id：" + document.get("id"));
-            System.out.println("title：" + document.get("title"));
-            System.out.println("content：" + document.get("content"));
+        // 按id排序，每页5条，用search_after代替from/size翻页：
+        // from/size每个分片都要取出并排序from + size条，页数越深越慢，超过max_result_window直接报错；
+        // search_after只取上一页最后一个文档之后的size条，第100页和第1页开销相同
+        ArticleQuery query = ArticleQuery.of(QueryBuilders.matchAllQuery())
+                .size(5)
+                .sort("id", SortOrder.ASC);
+        // 查询前2页数据
+        for (int page = 1; page <= 2; page++) {
+            SearchResult result = searcher.search(query);
+            System.out.println("查询结果有：" + result.getTotalHits() + "条，第" + page + "页");
+            for (Article article : result.getArticles()) {
+                // 取文档属性
+                System.out.println("-----------文档的属性");
+                System.out.println("id：" + article.getId());
+                System.out.println("title：" + article.getTitle());
+                System.out.println("content：" + article.getContent());
+            }
+            if (result.getLastSortValues() == null) {
+                break;
+            }
+            // 下一页从这一页最后一个文档之后开始
+            query.searchAfter(result.getLastSortValues());
+        }
+    }
+
+    /**
+     * 异步查询，同时发起多个查询而不阻塞调用线程
+     */
+    @Test
+    public void testAsyncSearch() throws Exception {
+        AsyncArticleClient asyncClient = new AsyncArticleClient(client, "blog2", "article", 16);
+        List<QueryBuilder> queries = new ArrayList<>();
+        for (int i = 3; i <= 100; i++) {
+            queries.add(QueryBuilders.termQuery("id", i));
         }
+        // 所有查询都发出后再统一等待结果
+        List<List<Article>> results = asyncClient.searchAll(queries, 10).get();
+        System.out.println("共完成查询：" + results.size() + "个");
+        results.forEach(articles -> articles.forEach(System.out::println));
+        System.out.println(asyncClient.get("1", "search").get());
+    }
 
-        // 释放资源
-        client.close();
+    /**
+     * 批量查询，窗口内的id查询和搜索分别合并成一次multi get和multi search，
+     * 两个分类的id各自带上routing，仍然在同一个multi get中
+     */
+    @Test
+    public void testBatchQuery() throws Exception {
+        try (ArticleBatcher batcher = new ArticleBatcher(client, "blog2", "article", 5, 200)) {
+            List<String> javaIds = new ArrayList<>();
+            List<String> searchIds = new ArrayList<>();
+            for (int i = 1; i <= 50; i++) {
+                (i % 2 == 0 ? javaIds : searchIds).add(String.valueOf(i));
+            }
+            CompletableFuture<List<Article>> java = batcher.getAll(javaIds, "java");
+            CompletableFuture<List<Article>> search = batcher.getAll(searchIds, "search");
+            CompletableFuture<List<Article>> byTitle = batcher.search(QueryBuilders.termQuery("title", "搜索"), 0, 5);
+            CompletableFuture<List<Article>> byContent = batcher.search(QueryBuilders.termQuery("content", "搜索"), 0, 5);
+            System.out.println("根据id查询到：" + (java.get().size() + search.get().size()) + "条");
+            byTitle.get().forEach(System.out::println);
+            byContent.get().forEach(System.out::println);
+        }
+    }
+
+    /**
+     * 查询结果缓存，相同的查询第二次直接从缓存返回
+     */
+    @Test
+    public void testCachedSearch() throws Exception {
+        QueryResultCache cache = new QueryResultCache(1000, 64 * 1024 * 1024, 1, TimeUnit.MINUTES);
+        searcher.setCache(cache);
+        for (int i = 0; i < 3; i++) {
+            search(QueryBuilders.termQuery("content", "搜索"));
+        }
+        search(QueryBuilders.termQuery("title", "搜索"), "title");
+        search(QueryBuilders.termQuery("title", "搜索"), "title");
+        System.out.println(cache);
+        cache.close();
+    }
+
+    /**
+     * 查询合并，并发的相同查询只发送一次请求
+     */
+    @Test
+    public void testCoalescedSearch() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer(SearchCoalescer.COLLAPSE_WHITESPACE);
+        AsyncArticleClient asyncClient = new AsyncArticleClient(client, "blog2", "article", 16)
+                .setCoalescer(coalescer);
+        List<CompletableFuture<List<Article>>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            // 多余的空白归一化后是同一个查询
+            String text = i % 2 == 0 ? "新版本 发布了" : "新版本   发布了";
+            futures.add(asyncClient.search(QueryBuilders.queryStringQuery(text), 0, 10));
+        }
+        for (CompletableFuture<List<Article>> future : futures) {
+            future.get();
+        }
+        System.out.println(coalescer);
+    }
+
+    /**
+     * 字段投影，列表页只取id和title，不传输很长的content
+     */
+    @Test
+    public void testProjection() throws Exception {
+        // _source过滤
+        SearchResult bySource = searcher.search(ArticleQuery.of(QueryBuilders.matchAllQuery())
+                .size(20)
+                .includes("id", "title"));
+        bySource.getArticles().forEach(System.out::println);
+        // mapping中id和title都是store=true，可以直接读取stored fields，完全不返回_source
+        SearchResult byStoredFields = searcher.search(ArticleQuery.of(QueryBuilders.matchAllQuery())
+                .size(20)
+                .storedFields("id", "title"));
+        byStoredFields.getArticles().forEach(System.out::println);
+    }
+
+    /**
+     * 按分类查询，带上和写入时相同的routing，只查询该分类所在的一个分片
+     */
+    @Test
+    public void testRoutingSearch() throws Exception {
+        SearchResult result = searcher.search(ArticleQuery.of(QueryBuilders.termQuery("category", "java"))
+                .routing("java")
+                .size(20));
+        System.out.println("查询结果有：" + result.getTotalHits() + "条");
+        result.getArticles().forEach(System.out::println);
     }
 
     private void search(QueryBuilder queryBuilder) throws Exception {
-        // 1、创建es客户端连接对象
-        // 2、设置搜索条件，并执行操作
-        SearchResponse searchResponse = client.prepareSearch("blog2")
-                .setTypes("article")
-                .setQuery(queryBuilder)
-                // 默认每页10条记录
-                // 查询第2页数据，每页20条
-                // setFrom()：从第几条开始检索，默认是0。
-                // setSize():每页最多显示的记录数。
-                .setFrom(0)
-                .setSize(5)
-                .get();
-        // 3、遍历搜索结果数据
-        SearchHits hits = searchResponse.getHits(); // 获取命中次数，查询结果有多少对象
-        System.out.println("查询结果有：" + hits.getTotalHits() + "条");
-        Iterator<SearchHit> iterator = hits.iterator();
-        while (iterator.hasNext()) {
-            SearchHit searchHit = iterator.next(); // 每个查询对象
-            System.out.println(searchHit.getSourceAsString()); // 获取字符串格式打印，以json格式输出
+        // 设置搜索条件，并执行操作，默认每页10条记录，这里取第一页的5条
+        SearchResult result = searcher.search(queryBuilder, 0, 5);
+        // 遍历搜索结果数据
+        System.out.println("查询结果有：" + result.getTotalHits() + "条");
+        for (Article article : result.getArticles()) {
             // 取文档属性
             System.out.println("-----------文档的属性");
-            Map<String, Object> document = searchHit.getSource();
-            System.out.println("id：" + document.get("id"));
-            System.out.println("title：" + document.get("title"));
-            System.out.println("content：" + document.get("content"));
+            System.out.println("id：" + article.getId());
+            System.out.println("title：" + article.getTitle());
+            System.out.println("content：" + article.getContent());
         }
-        // 关闭client
-        client.close();
     }
 
     // 高亮查询方法提取
     private void search(QueryBuilder queryBuilder, String highlightField) throws Exception {
-        HighlightBuilder highlightBuilder = new HighlightBuilder();
-        // 高亮显示的字段
-        highlightBuilder.field(highlightField);
-        highlightBuilder.preTags("<em>");
-        highlightBuilder.postTags("</em>");
-        //执行查询
-        SearchResponse searchResponse = client.prepareSearch("blog2")
-                .setTypes("article")
-                .setQuery(queryBuilder)
-                // 设置分页信息
-                .setFrom(0)
-                // 每页显示的行数
-                .setSize(5)
-                // 设置高亮信息
-                .highlighter(highlightBuilder)
-                .get();
-        // 取查询结果
-        SearchHits searchHits = searchResponse.getHits();
+        //执行查询，设置分页信息和高亮字段
+        SearchResult result = searcher.search(queryBuilder, 0, 5, highlightField);
         // 取查询结果的总记录数
-        System.out.println("查询结果总记录数：" + searchHits.getTotalHits());
+        System.out.println("查询结果总记录数：" + result.getTotalHits());
         // 查询结果列表
-        Iterator<SearchHit> iterator = searchHits.iterator();
-        while (iterator.hasNext()) {
-            SearchHit searchHit = iterator.next();
-            // 打印文档对象，以json格式输出
-            System.out.println(searchHit.getSourceAsString());
+        for (Article article : result.getArticles()) {
             // 取文档的属性
             System.out.println("-----------文档的属性");
-            Map<String, Object> document = searchHit.getSource();
-            System.out.println(document.get("id"));
-            System.out.println(document.get("title"));
-            System.out.println(document.get("content"));
+            System.out.println(article.getId());
+            System.out.println(article.getTitle());
+            System.out.println(article.getContent());
             System.out.println("************高亮结果");
-            Map<String, HighlightField> highlightFields = searchHit.getHighlightFields();
-            System.out.println(highlightFields);
-            // 取title高亮显示的结果
-            HighlightField field = highlightFields.get(highlightField);
-            Text[] fragments = field.getFragments();
-            if (fragments != null) {
-                String title = fragments[0].toString();
-                System.out.println(title);
+            // 取高亮显示的结果，没有高亮片段时为空列表
+            List<String> fragments = result.getHighlight(article, highlightField);
+            if (!fragments.isEmpty()) {
+                System.out.println(fragments.get(0));
             }
         }
-        //关闭client
-        client.close();
     }
-}
\ No newline at end of file
+
+    /**
+     * 聚合查询，只返回统计结果而不是把文档取回客户端再计数
+     */
+    @Test
+    public void testAggregation() throws Exception {
+        AggregationResult result = searcher.aggregate(QueryBuilders.matchAllQuery(),
+                // title中出现最多的10个词条
+                AggregationBuilders.terms("titleTerms").field("title").size(10),
+                // id每10个一段的文档数
+                AggregationBuilders.histogram("idHistogram").field("id").interval(10),
+                AggregationBuilders.cardinality("idCount").field("id"),
+                AggregationBuilders.stats("idStats").field("id"));
+        System.out.println("文档总数：" + result.getTotalHits());
+        System.out.println("title词条：" + result.getBuckets("titleTerms"));
+        System.out.println("id分段：" + result.getBuckets("idHistogram"));
+        System.out.println("不同的id：" + result.getCardinality("idCount"));
+        System.out.println("id统计：" + result.getStats("idStats"));
+
+        // 只需要知道有没有或者是否超过某个数量时，每个分片数到足够的条数就停止
+        System.out.println("是否存在：" + searcher.exists(QueryBuilders.termQuery("title", "搜索")));
+        System.out.println("至少：" + searcher.count(QueryBuilders.termQuery("title", "搜索"), 50));
+    }
+
+    /**
+     * 查看共享client上每种操作的延迟分位数、服务端took、字节数（需要-Des.metrics.bytes=true）和拒绝次数，也可以用jconsole查看
+     * com.itheima.es:type=ClientMetrics
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            searcher.search(QueryBuilders.termQuery("title", "搜索"), 0, 10);
+        }
+        System.out.println(ClientMetrics.global().getReport());
+    }
+
+    @Test
+    public void testNodeSelection() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            searcher.search(QueryBuilders.termQuery("title", "搜索"), 0, 10);
+        }
+        // 每个节点的响应时间EWMA、在途请求数和是否被摘除
+        System.out.println(NodeSelector.global().report());
+    }
+}
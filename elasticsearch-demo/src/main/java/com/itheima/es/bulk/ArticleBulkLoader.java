@@ -0,0 +1,245 @@
+package com.itheima.es.bulk;
+
+import com.itheima.es.Article;
+import com.itheima.es.client.ResilientClient;
+import com.itheima.es.codec.ArticleSerializer;
+import com.itheima.es.index.EntityRouting;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 基于BulkProcessor的批量导入工具
+ * <p>
+ * 按文档条数、请求字节数、时间间隔三个条件中先到者触发flush，
+ * 同时在途的bulk请求数量由concurrentRequests控制，在途请求已满时add()会阻塞生产者。
+ */
+public class ArticleBulkLoader {
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final int bulkActions;
+    private final ByteSizeValue bulkSize;
+    private final TimeValue flushInterval;
+    private final int concurrentRequests;
+    private final Consumer<BulkItemResponse> failureHandler;
+    private final XContentType contentType;
+
+    private ArticleBulkLoader(Builder builder) {
+        this.client = builder.client;
+        this.index = builder.index;
+        this.type = builder.type;
+        this.bulkActions = builder.bulkActions;
+        this.bulkSize = builder.bulkSize;
+        this.flushInterval = builder.flushInterval;
+        this.concurrentRequests = builder.concurrentRequests;
+        this.failureHandler = builder.failureHandler;
+        this.contentType = builder.contentType;
+    }
+
+    public static Builder builder(Client client, String index, String type) {
+        return new Builder(client, index, type);
+    }
+
+    /**
+     * 导入一个文档流，导入完成（所有bulk请求都已返回）后才返回
+     */
+    public LoadResult load(Stream<Article> articles) throws Exception {
+        return load(articles.iterator());
+    }
+
+    /**
+     * 导入一个文档迭代器，导入完成（所有bulk请求都已返回）后才返回
+     */
+    public LoadResult load(Iterator<Article> articles) throws Exception {
+        LoadResult result = new LoadResult();
+        BulkProcessor processor = BulkProcessor.builder(client, new Listener(result))
+                // 每多少条文档提交一次
+                .setBulkActions(bulkActions)
+                // 每多大的请求体提交一次
+                .setBulkSize(bulkSize)
+                // 不论条数和大小，每隔多久提交一次
+                .setFlushInterval(flushInterval)
+                // 同时在途的bulk请求数，0表示同步提交
+                .setConcurrentRequests(concurrentRequests)
+                // 线程池拒绝时的重试策略，ResilientClient自己会重发被拒绝的文档，这里不再重试
+                .setBackoffPolicy(client instanceof ResilientClient
+                        ? BackoffPolicy.noBackoff() : BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), 3))
+                .build();
+        long start = System.nanoTime();
+        try {
+            while (articles.hasNext()) {
+                Article article = articles.next();
+                BytesReference source = ArticleSerializer.toBytes(article, contentType);
+                result.submitted.incrementAndGet();
+                result.bytes.addAndGet(source.length());
+                // 在途请求已满时这里会阻塞，形成对生产者的背压
+                processor.add(new IndexRequest(index, type, String.valueOf(article.getId()))
+                        // @Routing字段的值，同一分类的文档写入同一个分片
+                        .routing(EntityRouting.routingOf(article))
+                        .source(source, contentType));
+            }
+        } finally {
+            processor.awaitClose(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            result.elapsedNanos = System.nanoTime() - start;
+        }
+        return result;
+    }
+
+    private class Listener implements BulkProcessor.Listener {
+
+        private final LoadResult result;
+
+        Listener(LoadResult result) {
+            this.result = result;
+        }
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            result.bulks.incrementAndGet();
+            for (BulkItemResponse item : response) {
+                if (item.isFailed()) {
+                    result.failed.incrementAndGet();
+                    failureHandler.accept(item);
+                } else {
+                    result.succeeded.incrementAndGet();
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            // 整个bulk请求失败，请求中的每一条文档都记为失败
+            result.bulks.incrementAndGet();
+            result.failed.addAndGet(request.numberOfActions());
+            System.err.println("bulk[" + executionId + "]失败，" + request.numberOfActions() + "条文档未写入：" + failure);
+        }
+    }
+
+    public static class Builder {
+        private final Client client;
+        private final String index;
+        private final String type;
+        private int bulkActions = 1000;
+        private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+        private TimeValue flushInterval = TimeValue.timeValueSeconds(5);
+        private int concurrentRequests = 2;
+        private Consumer<BulkItemResponse> failureHandler = item ->
+                System.err.println("文档[" + item.getId() + "]写入失败：" + item.getFailureMessage());
+        private XContentType contentType = ArticleSerializer.contentType();
+
+        private Builder(Client client, String index, String type) {
+            this.client = client;
+            this.index = index;
+            this.type = type;
+        }
+
+        public Builder bulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        public Builder bulkSize(ByteSizeValue bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        public Builder flushInterval(TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder concurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        /**
+         * 文档的编码格式，默认为ArticleSerializer的默认格式，SMILE和CBOR比JSON小，适合带宽受限的导入
+         */
+        public Builder contentType(XContentType contentType) {
+            this.contentType = contentType;
+            return this;
+        }
+
+        public Builder onFailure(Consumer<BulkItemResponse> failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
+
+        public ArticleBulkLoader build() {
+            return new ArticleBulkLoader(this);
+        }
+    }
+
+    /**
+     * 一次导入的统计结果
+     */
+    public static class LoadResult {
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong bulks = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long elapsedNanos;
+
+        public long getSubmitted() {
+            return submitted.get();
+        }
+
+        public long getSucceeded() {
+            return succeeded.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getBulks() {
+            return bulks.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public double getDocsPerSecond() {
+            return elapsedNanos == 0 ? 0 : submitted.get() * 1e9 / elapsedNanos;
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes.get() / (1024.0 * 1024.0) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("导入%d条（成功%d，失败%d），共%d个bulk，耗时%dms，%.1f docs/sec，%.2f MB/sec",
+                    getSubmitted(), getSucceeded(), getFailed(), getBulks(), getElapsedMillis(),
+                    getDocsPerSecond(), getMegabytesPerSecond());
+        }
+    }
+}
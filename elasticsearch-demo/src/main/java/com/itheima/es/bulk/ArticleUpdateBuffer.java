@@ -0,0 +1,357 @@
+package com.itheima.es.bulk;
+
+import com.itheima.es.Article;
+import com.itheima.es.client.AsyncArticleClient;
+import com.itheima.es.client.ClientHolder;
+import com.itheima.es.codec.ArticleSerializer;
+import com.itheima.es.index.EntityRouting;
+import com.itheima.es.index.RolloverManager;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 局部更新的写缓冲（write-behind）
+ * <p>
+ * 更新先放在内存中，一个时间窗口内对同一个文档的多次更新合并成一个doc（后面的字段值覆盖前面的），
+ * 窗口结束或者待写文档数达到上限时，所有文档作为一个bulk的update请求发送，并开启detect_noop，
+ * 值没有变化的更新不会产生新的段。频繁编辑的文章每个窗口只写一次，减少索引和刷新的开销。
+ * <p>
+ * 同一时间只有一个bulk在途，同一个文档先后两次发送的更新不会乱序写入；在途期间的更新继续合并，
+ * bulk返回后如果窗口已经到期或者待写文档数达到上限，立即发送下一个bulk。
+ * <p>
+ * 配置了{@link #setRollover(RolloverManager)}时，index是rollover的写别名。发送每个bulk之前用一次查询找到这批文档
+ * 所在的后备索引，已经在旧索引中的文档直接更新那个索引，找不到的文档写到写别名。在发送时而不是添加时查找，
+ * 每个bulk只多一次查询，也不会因为窗口内发生rollover而写错索引。
+ * <p>
+ * 返回的future在所在的bulk完成后完成，同一个文档合并在一起的更新得到相同的结果。
+ * 窗口内的更新在进程退出前没有发送就会丢失，所以不再使用时必须调用{@link #close()}，关闭后不能再添加更新。
+ */
+public class ArticleUpdateBuffer implements Closeable {
+
+    // 版本冲突（例如其他进程同时更新）时在分片上重试的次数
+    private static final int RETRY_ON_CONFLICT = 3;
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final long windowMillis;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+    // 没有配置时所有更新写入index
+    private volatile RolloverManager rollover;
+
+    // routing + id -> 待写的合并更新
+    private Map<String, PendingUpdate> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> flushTask;
+    // 是否有bulk在途
+    private boolean sending;
+    // bulk在途期间需要发送（窗口到期、数量达到上限或者调用了flush），等它完成后发送
+    private boolean flushRequested;
+    private boolean closed;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong noops = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+
+    /**
+     * 使用共享client，更新blog2/article，窗口1秒，最多缓冲1000个文档
+     */
+    public ArticleUpdateBuffer() {
+        this(ClientHolder.getClient(), "blog2", "article", 1000, 1000);
+    }
+
+    public ArticleUpdateBuffer(Client client, String index, String type, long windowMillis, int maxPending) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.windowMillis = windowMillis;
+        this.maxPending = maxPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "article-update-buffer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * index是这个rollover的写别名，发送时把更新写到文档所在的后备索引
+     */
+    public void setRollover(RolloverManager rollover) {
+        this.rollover = rollover;
+    }
+
+    /**
+     * 更新文档的部分字段，文档不存在时该更新失败
+     */
+    public CompletableFuture<DocWriteResponse.Result> update(String id, String routing, Map<String, Object> fields) {
+        return add(id, routing, fields, null);
+    }
+
+    /**
+     * 更新文章的部分字段，文档不存在时写入整篇文章，id和routing取自article
+     */
+    public CompletableFuture<DocWriteResponse.Result> upsert(Article article, Map<String, Object> fields) {
+        return add(String.valueOf(article.getId()), EntityRouting.routingOf(article), fields, article);
+    }
+
+    private CompletableFuture<DocWriteResponse.Result> add(String id, String routing, Map<String, Object> fields,
+                                                          Article upsert) {
+        Map<String, PendingUpdate> batch = null;
+        PendingUpdate update;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("ArticleUpdateBuffer已经关闭，不能再添加更新");
+            }
+            submitted.incrementAndGet();
+            update = pending.get(routing + '|' + id);
+            if (update == null) {
+                update = new PendingUpdate(id, routing);
+                pending.put(routing + '|' + id, update);
+            } else {
+                merged.incrementAndGet();
+            }
+            update.doc.putAll(fields);
+            if (upsert != null) {
+                update.upsert = upsert;
+            }
+            if (pending.size() >= maxPending) {
+                batch = takeOrDefer();
+            } else if (flushTask == null) {
+                flushTask = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return update.future;
+    }
+
+    /**
+     * 立即发送缓冲中的所有更新，有bulk在途时等它完成后发送
+     */
+    public void flush() {
+        Map<String, PendingUpdate> batch;
+        synchronized (this) {
+            batch = takeOrDefer();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * 发送剩余的更新并等待所有bulk完成，之后再添加更新会抛出IllegalStateException
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        synchronized (this) {
+            // 失败已经通过各个更新的future通知调用方，这里只等待发送完
+            while (sending || !pending.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * 没有bulk在途时取出所有待写的更新，有bulk在途或者没有更新时返回null。调用时必须持有锁
+     */
+    private Map<String, PendingUpdate> takeOrDefer() {
+        cancelFlushTask();
+        if (sending) {
+            flushRequested = true;
+            return null;
+        }
+        flushRequested = false;
+        if (pending.isEmpty()) {
+            return null;
+        }
+        Map<String, PendingUpdate> batch = pending;
+        pending = new LinkedHashMap<>();
+        sending = true;
+        return batch;
+    }
+
+    private void cancelFlushTask() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+
+    /**
+     * 一个bulk完成，需要时发送在途期间积累的更新
+     */
+    private void sent() {
+        Map<String, PendingUpdate> next = null;
+        synchronized (this) {
+            sending = false;
+            if (flushRequested || closed || pending.size() >= maxPending) {
+                next = takeOrDefer();
+            }
+            notifyAll();
+        }
+        if (next != null) {
+            send(next);
+        }
+    }
+
+    private void send(Map<String, PendingUpdate> batch) {
+        List<PendingUpdate> updates = new ArrayList<>(batch.values());
+        RolloverManager rollover = this.rollover;
+        // 查找是同步的查询，放到scheduler线程上执行，不占用调用方或者传输层的线程
+        CompletableFuture<Map<String, String>> located = rollover == null
+                ? CompletableFuture.completedFuture(Collections.emptyMap())
+                : CompletableFuture.supplyAsync(() -> locate(rollover, updates), scheduler);
+        bulks.incrementAndGet();
+        located.thenCompose(indices -> AsyncArticleClient.execute(bulkOf(updates, indices)))
+                .whenComplete((response, failure) -> {
+                    try {
+                        complete(updates, response, failure);
+                    } finally {
+                        sent();
+                    }
+                });
+    }
+
+    private static Map<String, String> locate(RolloverManager rollover, List<PendingUpdate> updates) {
+        Set<String> ids = new HashSet<>();
+        Set<String> routing = new HashSet<>();
+        for (PendingUpdate update : updates) {
+            ids.add(update.id);
+            routing.add(update.routing);
+        }
+        return rollover.locate(ids, routing.toArray(new String[0]));
+    }
+
+    /**
+     * @param indices id -> 文档所在的后备索引，不在其中的文档写入index
+     */
+    private BulkRequestBuilder bulkOf(List<PendingUpdate> updates, Map<String, String> indices) {
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (PendingUpdate update : updates) {
+            UpdateRequest request = new UpdateRequest(indices.getOrDefault(update.id, index), type, update.id)
+                    .routing(update.routing)
+                    .doc(update.doc)
+                    // 字段值都没有变化时不写入，返回NOOP
+                    .detectNoop(true)
+                    .retryOnConflict(RETRY_ON_CONFLICT);
+            if (update.upsert != null) {
+                request.upsert(ArticleSerializer.toBytes(update.upsert), ArticleSerializer.contentType());
+            }
+            bulk.add(request);
+        }
+        return bulk;
+    }
+
+    private void complete(List<PendingUpdate> updates, BulkResponse response, Throwable failure) {
+        if (failure != null) {
+            // 查找后备索引失败时异常被包装过
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+            failed.addAndGet(updates.size());
+            updates.forEach(update -> update.future.completeExceptionally(cause));
+            return;
+        }
+        // bulk响应中的条目和请求的顺序一致
+        for (BulkItemResponse item : response.getItems()) {
+            PendingUpdate update = updates.get(item.getItemId());
+            if (item.isFailed()) {
+                failed.incrementAndGet();
+                update.future.completeExceptionally(item.getFailure().getCause());
+                continue;
+            }
+            DocWriteResponse.Result result = item.getResponse().getResult();
+            if (result == DocWriteResponse.Result.NOOP) {
+                noops.incrementAndGet();
+            } else {
+                written.incrementAndGet();
+            }
+            update.future.complete(result);
+        }
+    }
+
+    /**
+     * 调用update/upsert的次数
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * 合并到同一文档的其他更新中、没有单独发送的次数
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * 值没有变化、被detect_noop跳过的文档数
+     */
+    public long getNoops() {
+        return noops.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBulks() {
+        return bulks.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ArticleUpdateBuffer{提交=%d，合并=%d，写入=%d，无变化=%d，失败=%d，bulk=%d}",
+                getSubmitted(), getMerged(), getWritten(), getNoops(), getFailed(), getBulks());
+    }
+
+    private static class PendingUpdate {
+        private final String id;
+        private final String routing;
+        private final Map<String, Object> doc = new LinkedHashMap<>();
+        private final CompletableFuture<DocWriteResponse.Result> future = new CompletableFuture<>();
+        private Article upsert;
+
+        PendingUpdate(String id, String routing) {
+            this.id = id;
+            this.routing = routing;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.itheima.es.bulk;
+
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 大批量导入期间临时调整索引设置
+ * <p>
+ * 开始时关闭自动刷新、副本数设为0、translog改为异步刷盘，结束时恢复原来的设置，
+ * 可选地force merge到指定段数，并等待索引恢复为green。index也可以是别名或者通配符，
+ * 原来的设置按实际的索引分别保存和恢复，各个后备索引的副本数、刷新间隔不同时也能恢复原样。用法：
+ * <pre>
+ * try (BulkLoadSession session = BulkLoadSession.start(client, "blog2")) {
+ *     loader.load(articles);
+ * }
+ * </pre>
+ */
+public class BulkLoadSession implements AutoCloseable {
+
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final String TRANSLOG_DURABILITY = "index.translog.durability";
+    // index.translog.sync_interval不是动态设置，打开的索引上不能修改，异步刷盘使用它的默认值5s
+    private static final String[] TUNED_SETTINGS = {REFRESH_INTERVAL, NUMBER_OF_REPLICAS, TRANSLOG_DURABILITY};
+
+    private final Client client;
+    private final String index;
+    private final int maxNumSegments;
+    private final TimeValue greenTimeout;
+    // 实际的索引名 -> 导入前的设置，值为null表示原来没有显式设置，结束时恢复为默认值
+    private final Map<String, String[]> originalValues = new LinkedHashMap<>();
+    private boolean closed;
+
+    private BulkLoadSession(Client client, String index, int maxNumSegments, TimeValue greenTimeout) {
+        this.client = client;
+        this.index = index;
+        this.maxNumSegments = maxNumSegments;
+        this.greenTimeout = greenTimeout;
+    }
+
+    /**
+     * 开始导入，结束时不做force merge，最多等待5分钟变为green
+     */
+    public static BulkLoadSession start(Client client, String index) {
+        return start(client, index, 0, TimeValue.timeValueMinutes(5));
+    }
+
+    /**
+     * 开始导入
+     *
+     * @param maxNumSegments 结束时force merge到的段数，<=0表示不做force merge
+     * @param greenTimeout   结束时等待索引变为green的最长时间
+     */
+    public static BulkLoadSession start(Client client, String index, int maxNumSegments, TimeValue greenTimeout) {
+        BulkLoadSession session = new BulkLoadSession(client, index, maxNumSegments, greenTimeout);
+        session.begin();
+        return session;
+    }
+
+    private void begin() {
+        GetSettingsResponse current = client.admin().indices().prepareGetSettings(index).get();
+        // 返回的设置以实际的索引名为key，别名指向几个索引就有几份
+        Iterator<String> concreteIndices = current.getIndexToSettings().keysIt();
+        while (concreteIndices.hasNext()) {
+            String concreteIndex = concreteIndices.next();
+            String[] values = new String[TUNED_SETTINGS.length];
+            for (int i = 0; i < TUNED_SETTINGS.length; i++) {
+                values[i] = current.getSetting(concreteIndex, TUNED_SETTINGS[i]);
+            }
+            originalValues.put(concreteIndex, values);
+        }
+        client.admin().indices().prepareUpdateSettings(index)
+                .setSettings(Settings.builder()
+                        // 导入期间不刷新，新写入的文档暂时搜索不到
+                        .put(REFRESH_INTERVAL, "-1")
+                        // 不复制到副本，结束后再一次性恢复副本
+                        .put(NUMBER_OF_REPLICAS, 0)
+                        // translog异步刷盘，节点宕机可能丢失最近sync_interval内的写入，导入失败时需要重新导入
+                        .put(TRANSLOG_DURABILITY, "async"))
+                .get();
+        System.out.println("索引[" + index + "]进入批量导入模式");
+    }
+
+    /**
+     * 恢复原来的设置，刷新索引，按需force merge，并等待索引变为green
+     * <p>
+     * 某个索引恢复失败时继续恢复其他索引并完成后面的步骤，最后抛出第一个异常，其余的异常作为suppressed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        RuntimeException failure = null;
+        for (Map.Entry<String, String[]> entry : originalValues.entrySet()) {
+            String concreteIndex = entry.getKey();
+            String[] values = entry.getValue();
+            Settings.Builder restore = Settings.builder();
+            for (int i = 0; i < TUNED_SETTINGS.length; i++) {
+                if (values[i] == null) {
+                    restore.putNull(TUNED_SETTINGS[i]);
+                } else {
+                    restore.put(TUNED_SETTINGS[i], values[i]);
+                }
+            }
+            try {
+                client.admin().indices().prepareUpdateSettings(concreteIndex).setSettings(restore).get();
+            } catch (RuntimeException e) {
+                System.err.println("恢复索引[" + concreteIndex + "]的设置失败：" + e.getMessage());
+                failure = addFailure(failure, e);
+            }
+        }
+        try {
+            client.admin().indices().prepareRefresh(index).get();
+            if (maxNumSegments > 0) {
+                client.admin().indices().prepareForceMerge(index)
+                        .setMaxNumSegments(maxNumSegments)
+                        .get();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("刷新索引[" + index + "]失败：" + e.getMessage());
+            failure = addFailure(failure, e);
+        }
+        try {
+            ClusterHealthResponse health = client.admin().cluster().prepareHealth(index)
+                    .setWaitForGreenStatus()
+                    .setTimeout(greenTimeout)
+                    .get();
+            if (health.isTimedOut()) {
+                System.err.println("索引[" + index + "]在" + greenTimeout + "内没有变为green，当前状态：" + health.getStatus());
+            } else if (failure == null) {
+                System.out.println("索引[" + index + "]已恢复原设置，状态：" + health.getStatus());
+            }
+        } catch (RuntimeException e) {
+            failure = addFailure(failure, e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static RuntimeException addFailure(RuntimeException failure, RuntimeException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+}
@@ -0,0 +1,102 @@
+package com.itheima.es.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 按集群的拒绝情况自动调整上限的{@link InFlightLimiter}（AIMD）
+ * <p>
+ * 每个成功的请求把上限加 1/上限，即每轮请求全部成功时上限加1；请求被拒绝时上限减半。
+ * 减半之前发出的请求随后被拒绝，反映的是减半之前的负载，不会再次减半，所以一轮拒绝只减半一次。
+ * 集群过载时在途的请求数很快降下来，恢复后再慢慢增加，吞吐量平稳下降而不是被大量拒绝和重试拖垮。
+ */
+public class AdaptiveLimiter {
+
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final InFlightLimiter limiter;
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private long lastDecreaseNanos = System.nanoTime();
+    private final LongAdder decreases = new LongAdder();
+
+    /**
+     * @param initialLimit 开始时的上限
+     * @param minLimit     上限最少减到多少
+     * @param maxLimit     上限最多加到多少
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("需要满足0 < minLimit <= initialLimit <= maxLimit："
+                    + minLimit + "，" + initialLimit + "，" + maxLimit);
+        }
+        this.limiter = new InFlightLimiter(initialLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * 提交一个异步请求，请求在拿到名额后才会真正发出
+     *
+     * @param overloaded 请求成功但响应中有部分被拒绝（例如bulk中的文档、search中的分片）时返回true
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request, Predicate<? super T> overloaded) {
+        return limiter.submit(() -> {
+            long start = System.nanoTime();
+            return request.get().whenComplete((value, failure) -> {
+                if (failure != null ? ResilientClient.isRejection(failure) : overloaded.test(value)) {
+                    onOverload(start);
+                } else if (failure == null) {
+                    onSuccess();
+                }
+            });
+        });
+    }
+
+    private synchronized void onSuccess() {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+        if ((int) limit != limiter.getMaxInFlight()) {
+            // 调大时会在当前线程发出排队的请求，发送是异步的，不会长时间占用锁
+            limiter.setMaxInFlight((int) limit);
+        }
+    }
+
+    private synchronized void onOverload(long startNanos) {
+        if (startNanos - lastDecreaseNanos < 0) {
+            return;
+        }
+        lastDecreaseNanos = System.nanoTime();
+        limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+        limiter.setMaxInFlight((int) limit);
+        decreases.increment();
+    }
+
+    public int getLimit() {
+        return limiter.getMaxInFlight();
+    }
+
+    public int getInFlight() {
+        return limiter.getInFlight();
+    }
+
+    public int getQueued() {
+        return limiter.getQueued();
+    }
+
+    /**
+     * 因为拒绝而减半的次数
+     */
+    public long getDecreases() {
+        return decreases.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimiter{上限=" + getLimit() + "，在途=" + getInFlight() + "，排队=" + getQueued()
+                + "，减半=" + getDecreases() + "}";
+    }
+}
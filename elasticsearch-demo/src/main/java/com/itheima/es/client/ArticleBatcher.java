@@ -0,0 +1,303 @@
+package com.itheima.es.client;
+
+import com.itheima.es.Article;
+import com.itheima.es.search.ArticleHitMapper;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把短时间窗口内的并发请求合并成一次往返
+ * <p>
+ * 并发的id查询合并成一个MultiGetRequest，并发的搜索合并成一个MultiSearchRequest，
+ * 返回后再按调用方拆分结果。每个请求最多额外等待一个窗口时间，批次满了则立即发送。
+ * <p>
+ * 文档按@Routing字段写入，id查询要带上写入时的routing，multi get中每个id使用各自的routing。
+ */
+public class ArticleBatcher implements Closeable {
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+
+    // 同一个id可能被多个调用方同时查询，共享同一个future
+    private Map<GetKey, CompletableFuture<Optional<Article>>> pendingGets = new LinkedHashMap<>();
+    private List<PendingSearch> pendingSearches = new ArrayList<>();
+    private ScheduledFuture<?> getFlushTask;
+    private ScheduledFuture<?> searchFlushTask;
+    private boolean closed;
+
+    /**
+     * 使用共享client，访问blog2/article，窗口2ms，每批最多200个请求
+     */
+    public ArticleBatcher() {
+        this(ClientHolder.getClient(), "blog2", "article", 2, 200);
+    }
+
+    public ArticleBatcher(Client client, String index, String type, long windowMillis, int maxBatchSize) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "article-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 根据id查询不带routing写入的文档，和窗口内的其他id查询合并成一次multi get；
+     * blog2的mapping要求routing，不带routing的get会失败，需要使用{@link #get(String, String)}
+     */
+    public CompletableFuture<Optional<Article>> get(String id) {
+        return get(id, null);
+    }
+
+    /**
+     * 根据id和写入时的routing查询文档，和窗口内的其他id查询合并成一次multi get
+     */
+    public CompletableFuture<Optional<Article>> get(String id, String routing) {
+        Map<GetKey, CompletableFuture<Optional<Article>>> batch = null;
+        CompletableFuture<Optional<Article>> future;
+        synchronized (this) {
+            checkOpen();
+            future = pendingGets.computeIfAbsent(new GetKey(id, routing), key -> new CompletableFuture<>());
+            if (pendingGets.size() >= maxBatchSize) {
+                batch = takeGets();
+            } else if (getFlushTask == null) {
+                getFlushTask = scheduler.schedule(this::flushGets, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            sendGets(batch);
+        }
+        return future;
+    }
+
+    /**
+     * 根据一组不带routing写入的id查询文档，不存在的id不会出现在结果中
+     */
+    public CompletableFuture<List<Article>> getAll(List<String> ids) {
+        return getAll(ids, null);
+    }
+
+    /**
+     * 根据同一个routing（例如同一分类）下的一组id查询文档，不存在的id不会出现在结果中
+     */
+    public CompletableFuture<List<Article>> getAll(List<String> ids, String routing) {
+        List<CompletableFuture<Optional<Article>>> futures = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            futures.add(get(id, routing));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignore -> {
+                    List<Article> articles = new ArrayList<>(futures.size());
+                    for (CompletableFuture<Optional<Article>> future : futures) {
+                        future.join().ifPresent(articles::add);
+                    }
+                    return articles;
+                });
+    }
+
+    /**
+     * 执行一个查询，和窗口内的其他查询合并成一次multi search
+     */
+    public CompletableFuture<List<Article>> search(QueryBuilder query, int from, int size) {
+        PendingSearch search = new PendingSearch(query, from, size);
+        List<PendingSearch> batch = null;
+        synchronized (this) {
+            checkOpen();
+            pendingSearches.add(search);
+            if (pendingSearches.size() >= maxBatchSize) {
+                batch = takeSearches();
+            } else if (searchFlushTask == null) {
+                searchFlushTask = scheduler.schedule(this::flushSearches, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            sendSearches(batch);
+        }
+        return search.future;
+    }
+
+    /**
+     * 发送窗口内剩余的请求，之后再查询会抛出IllegalStateException
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flushGets();
+        flushSearches();
+        scheduler.shutdown();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("ArticleBatcher已经关闭，不能再查询");
+        }
+    }
+
+    private void flushGets() {
+        Map<GetKey, CompletableFuture<Optional<Article>>> batch;
+        synchronized (this) {
+            batch = takeGets();
+        }
+        if (!batch.isEmpty()) {
+            sendGets(batch);
+        }
+    }
+
+    private void flushSearches() {
+        List<PendingSearch> batch;
+        synchronized (this) {
+            batch = takeSearches();
+        }
+        if (!batch.isEmpty()) {
+            sendSearches(batch);
+        }
+    }
+
+    private Map<GetKey, CompletableFuture<Optional<Article>>> takeGets() {
+        Map<GetKey, CompletableFuture<Optional<Article>>> batch = pendingGets;
+        pendingGets = new LinkedHashMap<>();
+        if (getFlushTask != null) {
+            getFlushTask.cancel(false);
+            getFlushTask = null;
+        }
+        return batch;
+    }
+
+    private List<PendingSearch> takeSearches() {
+        List<PendingSearch> batch = pendingSearches;
+        pendingSearches = new ArrayList<>();
+        if (searchFlushTask != null) {
+            searchFlushTask.cancel(false);
+            searchFlushTask = null;
+        }
+        return batch;
+    }
+
+    private void sendGets(Map<GetKey, CompletableFuture<Optional<Article>>> batch) {
+        List<GetKey> keys = new ArrayList<>(batch.keySet());
+        MultiGetRequestBuilder request = client.prepareMultiGet();
+        for (GetKey key : keys) {
+            request.add(new MultiGetRequest.Item(index, type, key.id).routing(key.routing));
+        }
+        AsyncArticleClient.execute(request).whenComplete((response, failure) -> {
+            if (failure != null) {
+                batch.values().forEach(future -> future.completeExceptionally(failure));
+                return;
+            }
+            // multi get的响应顺序与请求顺序一致；某个文档解析失败只影响它自己的调用方
+            MultiGetItemResponse[] items = response.getResponses();
+            for (int i = 0; i < keys.size(); i++) {
+                MultiGetItemResponse item = items[i];
+                CompletableFuture<Optional<Article>> future = batch.get(keys.get(i));
+                try {
+                    if (item.isFailed()) {
+                        future.completeExceptionally(item.getFailure().getFailure());
+                    } else if (item.getResponse().isExists()) {
+                        future.complete(Optional.of(ArticleHitMapper.toArticle(item.getResponse().getSourceAsBytesRef())));
+                    } else {
+                        future.complete(Optional.empty());
+                    }
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private void sendSearches(List<PendingSearch> batch) {
+        MultiSearchRequestBuilder request = client.prepareMultiSearch();
+        for (PendingSearch search : batch) {
+            request.add(client.prepareSearch(index)
+                    .setTypes(type)
+                    .setQuery(search.query)
+                    .setFrom(search.from)
+                    .setSize(search.size));
+        }
+        AsyncArticleClient.execute(request).whenComplete((response, failure) -> {
+            if (failure != null) {
+                batch.forEach(search -> search.future.completeExceptionally(failure));
+                return;
+            }
+            // multi search的响应顺序与请求顺序一致；某个结果解析失败只影响它自己的调用方
+            MultiSearchResponse.Item[] items = response.getResponses();
+            for (int i = 0; i < batch.size(); i++) {
+                MultiSearchResponse.Item item = items[i];
+                CompletableFuture<List<Article>> future = batch.get(i).future;
+                try {
+                    if (item.isFailure()) {
+                        future.completeExceptionally(item.getFailure());
+                    } else {
+                        future.complete(ArticleHitMapper.toArticles(item.getResponse().getHits()));
+                    }
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private static final class GetKey {
+        private final String id;
+        private final String routing;
+
+        GetKey(String id, String routing) {
+            this.id = id;
+            this.routing = routing;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GetKey)) {
+                return false;
+            }
+            GetKey other = (GetKey) o;
+            return id.equals(other.id) && Objects.equals(routing, other.routing);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id.hashCode() + Objects.hashCode(routing);
+        }
+    }
+
+    private static class PendingSearch {
+        private final QueryBuilder query;
+        private final int from;
+        private final int size;
+        private final CompletableFuture<List<Article>> future = new CompletableFuture<>();
+
+        PendingSearch(QueryBuilder query, int from, int size) {
+            this.query = query;
+            this.from = from;
+            this.size = size;
+        }
+    }
+}
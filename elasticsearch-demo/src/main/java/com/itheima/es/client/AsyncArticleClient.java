@@ -0,0 +1,224 @@
+package com.itheima.es.client;
+
+import com.itheima.es.Article;
+import com.itheima.es.codec.ArticleSerializer;
+import com.itheima.es.index.EntityRouting;
+import com.itheima.es.search.ArticleHitMapper;
+import com.itheima.es.search.SearchCoalescer;
+import com.itheima.es.search.TitleSuggest;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 非阻塞的搜索、索引、查询API
+ * <p>
+ * 所有方法都通过ActionListener回调完成CompletableFuture，调用线程不会等待网络往返，
+ * 一个线程就可以同时挂起大量请求。批量发起查询时由{@link InFlightLimiter}限制在途数量。
+ */
+public class AsyncArticleClient {
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private final InFlightLimiter limiter;
+    // 不为null时，正在执行的相同搜索共享同一个请求
+    private volatile SearchCoalescer coalescer;
+    // 写入文档使用的编码格式
+    private volatile XContentType contentType = ArticleSerializer.contentType();
+
+    /**
+     * 使用共享client，访问blog2/article，最多同时在途256个请求
+     */
+    public AsyncArticleClient() {
+        this(ClientHolder.getClient(), "blog2", "article", 256);
+    }
+
+    public AsyncArticleClient(Client client, String index, String type, int maxInFlight) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.limiter = new InFlightLimiter(maxInFlight);
+    }
+
+    /**
+     * 异步搜索
+     */
+    public CompletableFuture<List<Article>> search(QueryBuilder query, int from, int size) {
+        SearchCoalescer current = coalescer;
+        if (current == null) {
+            return doSearch(query, from, size);
+        }
+        String key = index + '|' + Strings.toString(query) + '|' + from + '|' + size;
+        return current.executeAsync(key, () -> doSearch(query, from, size));
+    }
+
+    private CompletableFuture<List<Article>> doSearch(QueryBuilder query, int from, int size) {
+        return limiter.submit(() -> execute(client.prepareSearch(index)
+                .setTypes(type)
+                .setQuery(query)
+                .setFrom(from)
+                .setSize(size))
+                .thenApply(response -> ArticleHitMapper.toArticles(response.getHits())));
+    }
+
+    /**
+     * 异步的输入提示，返回以prefix开头的标题，容忍拼写错误，见{@link TitleSuggest}
+     */
+    public CompletableFuture<List<String>> suggest(String prefix, int size) {
+        SearchCoalescer current = coalescer;
+        if (current == null) {
+            return doSuggest(prefix, size);
+        }
+        return current.executeAsync("suggest|" + index + '|' + prefix + '|' + size, () -> doSuggest(prefix, size));
+    }
+
+    private CompletableFuture<List<String>> doSuggest(String prefix, int size) {
+        return limiter.submit(() -> execute(client.prepareSearch(index)
+                .setTypes(type)
+                .setSize(0)
+                .setFetchSource(false)
+                .suggest(TitleSuggest.build(prefix, size, true)))
+                .thenApply(TitleSuggest::titles));
+    }
+
+    /**
+     * 并发发起多个查询，结果顺序与查询顺序一致，同时在途的数量受maxInFlight限制
+     */
+    public CompletableFuture<List<List<Article>>> searchAll(List<? extends QueryBuilder> queries, int size) {
+        List<CompletableFuture<List<Article>>> futures = new ArrayList<>(queries.size());
+        for (QueryBuilder query : queries) {
+            futures.add(search(query, 0, size));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignore -> {
+                    List<List<Article>> results = new ArrayList<>(futures.size());
+                    for (CompletableFuture<List<Article>> future : futures) {
+                        results.add(future.join());
+                    }
+                    return results;
+                });
+    }
+
+    /**
+     * 异步根据id查询不带routing写入的文档，文档不存在时返回Optional.empty()
+     * <p>
+     * blog2的mapping要求routing，不带routing的get会失败，需要使用{@link #get(String, String)}
+     */
+    public CompletableFuture<Optional<Article>> get(String id) {
+        return get(id, null);
+    }
+
+    /**
+     * 异步根据id查询带routing写入的文档，routing必须和写入时相同，否则会到别的分片上查找
+     */
+    public CompletableFuture<Optional<Article>> get(String id, String routing) {
+        return limiter.submit(() -> execute(client.prepareGet(index, type, id).setRouting(routing))
+                .thenApply(response -> response.isExists()
+                        ? Optional.of(ArticleHitMapper.toArticle(response.getSourceAsBytesRef()))
+                        : Optional.<Article>empty()));
+    }
+
+    /**
+     * 异步写入文档，文档id使用article的id，routing使用@Routing字段的值
+     */
+    public CompletableFuture<IndexResponse> index(Article article) {
+        XContentType format = contentType;
+        BytesReference source;
+        try {
+            source = ArticleSerializer.toBytes(article, format);
+        } catch (UncheckedIOException e) {
+            CompletableFuture<IndexResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e.getCause());
+            return failed;
+        }
+        return limiter.submit(() -> execute(client.prepareIndex(index, type, String.valueOf(article.getId()))
+                .setRouting(EntityRouting.routingOf(article))
+                .setSource(source, format)));
+    }
+
+    /**
+     * 异步更新文档的部分字段，只传输这些字段而不是整个文档，文档不存在时失败。
+     * 开启detect_noop，字段值没有变化时返回NOOP，不会写入
+     */
+    public CompletableFuture<UpdateResponse> update(String id, String routing, Map<String, Object> fields) {
+        return limiter.submit(() -> execute(client.prepareUpdate(index, type, id)
+                .setRouting(routing)
+                .setDoc(fields)
+                .setDetectNoop(true)));
+    }
+
+    /**
+     * 异步更新文章的部分字段，文档不存在时写入整篇文章
+     */
+    public CompletableFuture<UpdateResponse> upsert(Article article, Map<String, Object> fields) {
+        XContentType format = contentType;
+        BytesReference source;
+        try {
+            source = ArticleSerializer.toBytes(article, format);
+        } catch (UncheckedIOException e) {
+            CompletableFuture<UpdateResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e.getCause());
+            return failed;
+        }
+        return limiter.submit(() -> execute(client.prepareUpdate(index, type, String.valueOf(article.getId()))
+                .setRouting(EntityRouting.routingOf(article))
+                .setDoc(fields)
+                .setUpsert(source, format)
+                .setDetectNoop(true)));
+    }
+
+    /**
+     * 设置index和upsert写入文档的编码格式，可选JSON、SMILE、CBOR
+     */
+    public AsyncArticleClient setContentType(XContentType contentType) {
+        this.contentType = contentType;
+        return this;
+    }
+
+    /**
+     * 设置搜索合并，传null表示不合并
+     */
+    public AsyncArticleClient setCoalescer(SearchCoalescer coalescer) {
+        this.coalescer = coalescer;
+        return this;
+    }
+
+    public InFlightLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 把ActionListener回调适配成CompletableFuture
+     */
+    public static <Response extends ActionResponse> CompletableFuture<Response> execute(
+            ActionRequestBuilder<?, Response, ?> builder) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        builder.execute(new ActionListener<Response>() {
+            @Override
+            public void onResponse(Response response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+}
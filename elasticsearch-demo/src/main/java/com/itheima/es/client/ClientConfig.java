@@ -0,0 +1,207 @@
+package com.itheima.es.client;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 共享TransportClient的配置
+ * <p>
+ * 默认值与原来各个测试类中的硬编码一致，也可以通过系统属性覆盖，例如
+ * -Des.cluster.name=xxx -Des.nodes=127.0.0.1:9301,127.0.0.1:9302 -Des.sniff=true
+ * <p>
+ * es.retry.*和es.max.concurrency只对{@link ResilientClient}生效。
+ */
+public class ClientConfig {
+
+    private String clusterName = System.getProperty("es.cluster.name", "my-elasticsearch");
+    private List<String> nodes = new ArrayList<>(Arrays.asList(
+            System.getProperty("es.nodes", "127.0.0.1:9301,127.0.0.1:9302,127.0.0.1:9303").split(",")));
+    // 是否嗅探集群中的其他节点
+    private boolean sniff = Boolean.parseBoolean(System.getProperty("es.sniff", "false"));
+    // 节点ping的超时时间
+    private TimeValue pingTimeout = TimeValue.parseTimeValue(
+            System.getProperty("es.ping.timeout", "5s"), "es.ping.timeout");
+    // 多久采样/ping一次节点列表
+    private TimeValue pingInterval = TimeValue.parseTimeValue(
+            System.getProperty("es.ping.interval", "5s"), "es.ping.interval");
+    // netty的worker线程数，<=0表示使用ES的默认值（cpu核数*2）
+    private int nettyWorkers = Integer.getInteger("es.netty.workers", 0);
+    // ClientMetrics是否统计请求和响应的字节数，每个请求和响应都要多序列化一次，默认关闭，排查带宽问题时再打开
+    private boolean metricsBytes = Boolean.parseBoolean(System.getProperty("es.metrics.bytes", "false"));
+    // 是否按节点的响应时间选择协调节点，关闭后使用TransportClient默认的轮询
+    private boolean adaptiveSelection = Boolean.parseBoolean(System.getProperty("es.adaptive.selection", "true"));
+    // 是否压缩发出的请求（deflate），带宽受限的链路上可以减少bulk的字节数，代价是两端的CPU
+    private boolean transportCompress = Boolean.parseBoolean(System.getProperty("es.transport.compress", "false"));
+    // 被拒绝的请求包括第一次在内最多发送几次
+    private int retryMaxAttempts = Integer.getInteger("es.retry.max.attempts", 4);
+    // 第一次重试前等待的时间，之后每次加倍
+    private TimeValue retryInitialDelay = TimeValue.parseTimeValue(
+            System.getProperty("es.retry.initial.delay", "50ms"), "es.retry.initial.delay");
+    private TimeValue retryMaxDelay = TimeValue.parseTimeValue(
+            System.getProperty("es.retry.max.delay", "5s"), "es.retry.max.delay");
+    // 重试最多占正常请求的比例
+    private double retryBudgetRatio = Double.parseDouble(System.getProperty("es.retry.budget.ratio", "0.2"));
+    // 不论请求多少，每秒至少允许的重试次数
+    private double retryBudgetMinPerSecond = Double.parseDouble(System.getProperty("es.retry.budget.min", "10"));
+    // 同时在途的数据请求数上限，集群拒绝请求时自动调低
+    private int maxConcurrency = Integer.getInteger("es.max.concurrency", 256);
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public ClientConfig clusterName(String clusterName) {
+        this.clusterName = clusterName;
+        return this;
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 节点地址，格式为host:port
+     */
+    public ClientConfig nodes(String... nodes) {
+        this.nodes = new ArrayList<>(Arrays.asList(nodes));
+        return this;
+    }
+
+    public boolean isSniff() {
+        return sniff;
+    }
+
+    public ClientConfig sniff(boolean sniff) {
+        this.sniff = sniff;
+        return this;
+    }
+
+    public TimeValue getPingTimeout() {
+        return pingTimeout;
+    }
+
+    public ClientConfig pingTimeout(TimeValue pingTimeout) {
+        this.pingTimeout = pingTimeout;
+        return this;
+    }
+
+    public TimeValue getPingInterval() {
+        return pingInterval;
+    }
+
+    public ClientConfig pingInterval(TimeValue pingInterval) {
+        this.pingInterval = pingInterval;
+        return this;
+    }
+
+    public int getNettyWorkers() {
+        return nettyWorkers;
+    }
+
+    public ClientConfig nettyWorkers(int nettyWorkers) {
+        this.nettyWorkers = nettyWorkers;
+        return this;
+    }
+
+    public boolean isMetricsBytes() {
+        return metricsBytes;
+    }
+
+    public ClientConfig metricsBytes(boolean metricsBytes) {
+        this.metricsBytes = metricsBytes;
+        return this;
+    }
+
+    public boolean isAdaptiveSelection() {
+        return adaptiveSelection;
+    }
+
+    public ClientConfig adaptiveSelection(boolean adaptiveSelection) {
+        this.adaptiveSelection = adaptiveSelection;
+        return this;
+    }
+
+    public boolean isTransportCompress() {
+        return transportCompress;
+    }
+
+    public ClientConfig transportCompress(boolean transportCompress) {
+        this.transportCompress = transportCompress;
+        return this;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public ClientConfig retryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+        return this;
+    }
+
+    public TimeValue getRetryInitialDelay() {
+        return retryInitialDelay;
+    }
+
+    public ClientConfig retryInitialDelay(TimeValue retryInitialDelay) {
+        this.retryInitialDelay = retryInitialDelay;
+        return this;
+    }
+
+    public TimeValue getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    public ClientConfig retryMaxDelay(TimeValue retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+        return this;
+    }
+
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    public ClientConfig retryBudgetRatio(double retryBudgetRatio) {
+        this.retryBudgetRatio = retryBudgetRatio;
+        return this;
+    }
+
+    public double getRetryBudgetMinPerSecond() {
+        return retryBudgetMinPerSecond;
+    }
+
+    public ClientConfig retryBudgetMinPerSecond(double retryBudgetMinPerSecond) {
+        this.retryBudgetMinPerSecond = retryBudgetMinPerSecond;
+        return this;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public ClientConfig maxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * 转换成TransportClient使用的Settings
+     */
+    public Settings toSettings() {
+        Settings.Builder builder = Settings.builder()
+                .put("cluster.name", clusterName)
+                .put("client.transport.sniff", sniff)
+                .put("client.transport.ping_timeout", pingTimeout)
+                .put("client.transport.nodes_sampler_interval", pingInterval)
+                // 5.x中的名字，6.0之后改为transport.compress
+                .put("transport.tcp.compress", transportCompress);
+        if (nettyWorkers > 0) {
+            builder.put("transport.netty.worker_count", nettyWorkers);
+        }
+        return builder.build();
+    }
+}
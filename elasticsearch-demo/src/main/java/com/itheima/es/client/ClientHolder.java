@@ -0,0 +1,122 @@
+package com.itheima.es.client;
+
+import com.itheima.es.metrics.ClientMetrics;
+import com.itheima.es.metrics.MetricsPlugin;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.transport.client.PreBuiltTransportClient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * 进程内共享的TransportClient
+ * <p>
+ * 建立连接、完成节点握手以及创建netty线程的代价都很高，所以整个进程只创建一个client。
+ * 搜索和索引代码通过{@link #getClient()}借用它，不需要也不应该自己close，
+ * client在{@link #close()}或者JVM退出时统一关闭。
+ * <p>
+ * client安装了{@link MetricsPlugin}，每个请求的延迟和失败次数（-Des.metrics.bytes=true时还有字节数）记录在{@link ClientMetrics}中，
+ * 并注册为JMX的com.itheima.es:type=ClientMetrics。
+ * 写请求完成后由{@link WriteEventsPlugin}发出{@link IndexWriteEvents}通知。
+ * 同时安装了{@link NodeSelectionPlugin}，数据请求优先发给响应快、在途请求少的节点，见{@link NodeSelector}。
+ * 需要在集群过载时自动退避重试的代码使用{@link #getResilientClient()}。
+ */
+public final class ClientHolder {
+
+    private static ClientConfig config = new ClientConfig();
+    private static volatile TransportClient client;
+    private static volatile ResilientClient resilientClient;
+    private static Thread shutdownHook;
+
+    private ClientHolder() {
+    }
+
+    /**
+     * 设置client配置，必须在第一次{@link #getClient()}之前调用
+     */
+    public static synchronized void configure(ClientConfig clientConfig) {
+        if (client != null) {
+            throw new IllegalStateException("client已经创建，不能再修改配置");
+        }
+        config = clientConfig;
+    }
+
+    public static synchronized ClientConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 获取共享的client，第一次调用时创建
+     */
+    public static TransportClient getClient() {
+        TransportClient current = client;
+        if (current == null) {
+            synchronized (ClientHolder.class) {
+                current = client;
+                if (current == null) {
+                    current = createClient(config);
+                    client = current;
+                    shutdownHook = new Thread(ClientHolder::closeClient, "es-client-shutdown");
+                    Runtime.getRuntime().addShutdownHook(shutdownHook);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 包装共享client的{@link ResilientClient}，同一个client只创建一次，所有调用方共用一个重试预算和并发上限
+     */
+    public static ResilientClient getResilientClient() {
+        ResilientClient current = resilientClient;
+        if (current == null) {
+            synchronized (ClientHolder.class) {
+                current = resilientClient;
+                if (current == null) {
+                    current = new ResilientClient(getClient(), config);
+                    resilientClient = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 关闭共享的client，之后再调用{@link #getClient()}会重新创建
+     */
+    public static synchronized void close() {
+        if (shutdownHook != null) {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            shutdownHook = null;
+        }
+        closeClient();
+    }
+
+    private static synchronized void closeClient() {
+        if (client != null) {
+            client.close();
+            client = null;
+            resilientClient = null;
+        }
+    }
+
+    private static TransportClient createClient(ClientConfig config) {
+        ClientMetrics.global().setCountBytes(config.isMetricsBytes());
+        ClientMetrics.registerMBean();
+        NodeSelector.global().setEnabled(config.isAdaptiveSelection());
+        TransportClient transportClient = new PreBuiltTransportClient(config.toSettings(),
+                MetricsPlugin.class, NodeSelectionPlugin.class, WriteEventsPlugin.class);
+        try {
+            for (String node : config.getNodes()) {
+                String[] hostAndPort = node.trim().split(":");
+                transportClient.addTransportAddress(new InetSocketTransportAddress(
+                        InetAddress.getByName(hostAndPort[0]), Integer.parseInt(hostAndPort[1])));
+            }
+        } catch (UnknownHostException e) {
+            transportClient.close();
+            throw new IllegalArgumentException("无法解析节点地址：" + config.getNodes(), e);
+        }
+        return transportClient;
+    }
+}
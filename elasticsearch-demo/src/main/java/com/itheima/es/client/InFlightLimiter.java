@@ -0,0 +1,104 @@
+package com.itheima.es.client;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 限制同时在途的异步请求数量
+ * <p>
+ * 超过上限的请求先排队，等前面的请求完成后再发出，调用线程不会被阻塞。
+ * 上限可以在运行中调整，{@link AdaptiveLimiter}按集群的拒绝情况调整它。
+ * <p>
+ * 同一时间只有一个线程发出排队的请求。请求同步完成（例如节点不可用时立即失败）时，
+ * 完成回调不会在发送的线程上再嵌套一层发送，而是由正在发送的线程在循环中继续，调用栈不会随排队的请求数增长。
+ */
+public class InFlightLimiter {
+
+    private volatile int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    // 发送排队请求的申请次数，不为0时已经有线程在发送，其他线程只增加计数，由那个线程再检查一遍
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    public InFlightLimiter(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight必须大于0：" + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 提交一个异步请求，请求在拿到名额后才会真正发出
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        pending.add(() -> {
+            CompletableFuture<T> future;
+            try {
+                future = request.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((value, failure) -> {
+                inFlight.decrementAndGet();
+                drain();
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        drain();
+        return result;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * 修改上限，调大时立即发出排队的请求，调小时已经发出的请求不受影响
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight必须大于0：" + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        drain();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return pending.size();
+    }
+
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!pending.isEmpty()) {
+                int current = inFlight.get();
+                if (current >= maxInFlight) {
+                    break;
+                }
+                // 只有这个线程取队列，抢名额只和完成回调中的归还竞争
+                if (!inFlight.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                pending.poll().run();
+            }
+            // 循环期间有其他申请时再检查一遍，没有时退出
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -0,0 +1,37 @@
+package com.itheima.es.client;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 写操作通知
+ * <p>
+ * 本进程内的index/update/delete/bulk写入完成后调用{@link #written(String)}，通过{@link ClientHolder}的client
+ * 发出的写请求由{@link WriteEventsPlugin}自动通知。关心写入的组件（例如查询结果缓存）通过{@link #addListener(Consumer)}
+ * 注册回调，参数为请求中的索引名，可能是别名（例如blog3-write），也可能是后备索引。
+ */
+public final class IndexWriteEvents {
+
+    private static final List<Consumer<String>> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private IndexWriteEvents() {
+    }
+
+    public static void addListener(Consumer<String> listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Consumer<String> listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * 通知索引index被写入
+     */
+    public static void written(String index) {
+        for (Consumer<String> listener : LISTENERS) {
+            listener.accept(index);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.itheima.es.client;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.plugins.NetworkPlugin;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.NodeNotConnectedException;
+import org.elasticsearch.transport.ReceiveTimeoutTransportException;
+import org.elasticsearch.transport.Transport;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportInterceptor;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportResponseHandler;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按{@link NodeSelector}的选择把数据请求改发到更快的节点的TransportClient插件
+ * <p>
+ * 创建client时传入：new PreBuiltTransportClient(settings, NodeSelectionPlugin.class)。
+ * 只处理indices:data/开头的请求，集群管理和握手请求仍然按TransportClient原来的节点发送。
+ */
+public class NodeSelectionPlugin extends Plugin implements NetworkPlugin {
+
+    private static final String DATA_ACTION_PREFIX = "indices:data/";
+
+    @Override
+    public List<TransportInterceptor> getTransportInterceptors(ThreadContext threadContext) {
+        return Collections.singletonList(new TransportInterceptor() {
+            @Override
+            public AsyncSender interceptSender(AsyncSender sender) {
+                return new SelectingSender(sender);
+            }
+        });
+    }
+
+    private static class SelectingSender implements TransportInterceptor.AsyncSender {
+
+        private final TransportInterceptor.AsyncSender sender;
+
+        SelectingSender(TransportInterceptor.AsyncSender sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public <T extends TransportResponse> void sendRequest(Transport.Connection connection, String action,
+                                                              TransportRequest request, TransportRequestOptions options,
+                                                              TransportResponseHandler<T> handler) {
+            if (!action.startsWith(DATA_ACTION_PREFIX)) {
+                sender.sendRequest(connection, action, request, options, handler);
+                return;
+            }
+            NodeSelector selector = NodeSelector.global();
+            Transport.Connection target = selector.select(connection);
+            NodeSelector.NodeState state = selector.state(target);
+            state.requestStarted();
+            long start = System.nanoTime();
+            sender.sendRequest(target, action, request, options, new TransportResponseHandler<T>() {
+                @Override
+                public T newInstance() {
+                    return handler.newInstance();
+                }
+
+                @Override
+                public void handleResponse(T response) {
+                    state.requestFinished();
+                    // bulk中被拒绝的文档、search中被拒绝的分片同样计入这个节点的拒绝率
+                    double rejected = response instanceof ActionResponse
+                            ? ResilientClient.rejectedRatio((ActionResponse) response) : 0;
+                    selector.onSuccess(state, System.nanoTime() - start, rejected);
+                    handler.handleResponse(response);
+                }
+
+                @Override
+                public void handleException(TransportException exp) {
+                    state.requestFinished();
+                    if (ResilientClient.isRejection(exp)) {
+                        selector.onRejected(state);
+                    } else if (isNodeFailure(exp)) {
+                        selector.onFailure(state);
+                    } else {
+                        // 节点返回的业务异常（例如索引不存在）说明节点是正常的，仍然算一次响应时间
+                        selector.onSuccess(state, System.nanoTime() - start);
+                    }
+                    handler.handleException(exp);
+                }
+
+                @Override
+                public String executor() {
+                    return handler.executor();
+                }
+            });
+        }
+    }
+
+    /**
+     * 连接断开、超时这些说明节点本身有问题的异常，线程池满的拒绝单独统计
+     */
+    private static boolean isNodeFailure(TransportException exp) {
+        return exp instanceof ConnectTransportException || exp instanceof NodeNotConnectedException
+                || exp instanceof ReceiveTimeoutTransportException;
+    }
+}
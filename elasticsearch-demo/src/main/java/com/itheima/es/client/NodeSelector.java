@@ -0,0 +1,311 @@
+package com.itheima.es.client;
+
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.transport.Transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按节点的响应时间和在途请求数选择协调节点
+ * <p>
+ * TransportClient默认轮询所有节点，某个节点GC停顿或者merge繁忙时仍然有1/N的请求发给它。
+ * 这里为每个节点维护响应时间的EWMA和在途请求数，评分为 EWMA * (在途请求数 + 1)，
+ * 轮询选中的节点比最好的节点差很多时改发给最好的节点；连续失败或者明显比其他节点慢的节点被摘除一段时间，
+ * 到期后放一个请求过去探测，成功则恢复，失败则加倍摘除时间。长时间没有请求的节点也会定期放一个请求过去，
+ * 保证它的EWMA不会一直停留在旧值上。
+ * <p>
+ * 同时按节点做熔断：线程池满拒绝请求（EsRejectedExecutionException）的比例也按EWMA统计，整个请求被拒绝算1，
+ * bulk中部分文档、search中部分分片被拒绝按被拒绝的比例算，拒绝率超过一半时摘除该节点（断开）。
+ * 摘除到期后不等轮询选中它，下一个数据请求就发过去探测，相当于半开状态，成功则恢复（闭合）并重新统计拒绝率，
+ * 再被拒绝则加倍摘除时间。拒绝不算作连续失败，节点只有连接断开、超时时才按连续失败摘除。
+ * <p>
+ * 由{@link NodeSelectionPlugin}在传输层调用，只影响indices:data/开头的数据请求。
+ */
+public final class NodeSelector {
+
+    private static final NodeSelector GLOBAL = new NodeSelector();
+
+    // EWMA中新样本的权重
+    private static final double ALPHA = 0.3;
+    // 选中节点的评分超过最好节点的多少倍时改发给最好的节点
+    private static final double SWITCH_FACTOR = 1.5;
+    // EWMA超过其他节点中最快者的多少倍时视为异常慢
+    private static final double OUTLIER_FACTOR = 3.0;
+    // 判断异常慢之前至少需要的样本数
+    private static final int MIN_SAMPLES = 20;
+    private static final int FAILURE_THRESHOLD = 3;
+    // 拒绝率EWMA中新样本的权重，比响应时间平滑一些，偶尔一次拒绝不会触发熔断
+    private static final double REJECTION_ALPHA = 0.1;
+    // 拒绝率超过多少时熔断
+    private static final double REJECTION_THRESHOLD = 0.5;
+    private static final long MIN_EJECT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_EJECT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // 多久没有样本的节点需要探测一次
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ConcurrentMap<String, NodeState> nodes = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+
+    private NodeSelector() {
+    }
+
+    public static NodeSelector global() {
+        return GLOBAL;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 关闭后不再改变TransportClient选择的节点，但仍然记录每个节点的统计
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    NodeState state(Transport.Connection connection) {
+        NodeState state = nodes.computeIfAbsent(connection.getNode().getId(), id -> new NodeState(connection.getNode()));
+        state.connection = connection;
+        return state;
+    }
+
+    /**
+     * 为TransportClient轮询选中的连接选择实际使用的连接
+     */
+    Transport.Connection select(Transport.Connection original) {
+        NodeState chosen = state(original);
+        long now = System.nanoTime();
+        if (!enabled || chosen.claimProbe(now)) {
+            return original;
+        }
+        // 摘除到期的节点不依赖轮询选中，直接放一个探测请求过去
+        for (NodeState state : nodes.values()) {
+            if (state != chosen && state.connection != null && !state.isAvailable() && state.claimProbe(now)) {
+                return state.connection;
+            }
+        }
+        NodeState best = null;
+        for (NodeState state : nodes.values()) {
+            if (state.connection != null && state.isAvailable() && (best == null || state.score() < best.score())) {
+                best = state;
+            }
+        }
+        if (best == null || best == chosen) {
+            return original;
+        }
+        if (!chosen.isAvailable() || chosen.score() > best.score() * SWITCH_FACTOR) {
+            return best.connection;
+        }
+        return original;
+    }
+
+    void onSuccess(NodeState state, long latencyNanos) {
+        onSuccess(state, latencyNanos, 0);
+    }
+
+    /**
+     * @param rejected 响应中被拒绝的比例，bulk中被拒绝的文档、search中被拒绝的分片
+     */
+    void onSuccess(NodeState state, long latencyNanos, double rejected) {
+        state.recordLatency(latencyNanos);
+        long now = System.nanoTime();
+        boolean overloaded = state.recordRejection(rejected);
+        if ((overloaded || state.samples.get() >= MIN_SAMPLES && isOutlier(state)) && canEject(state)) {
+            state.eject(now);
+        } else if (!overloaded) {
+            state.recover();
+        }
+    }
+
+    void onFailure(NodeState state) {
+        long now = System.nanoTime();
+        if (state.recordFailure() && canEject(state)) {
+            state.eject(now);
+        }
+    }
+
+    /**
+     * 节点的线程池满拒绝了请求，节点本身是通的，但继续发过去只会被拒绝
+     */
+    void onRejected(NodeState state) {
+        long now = System.nanoTime();
+        if (state.recordRejection(1) && canEject(state)) {
+            state.eject(now);
+        }
+    }
+
+    private boolean isOutlier(NodeState state) {
+        double fastest = Double.MAX_VALUE;
+        for (NodeState other : nodes.values()) {
+            if (other != state && other.isAvailable() && other.samples.get() >= MIN_SAMPLES) {
+                fastest = Math.min(fastest, other.ewmaNanos);
+            }
+        }
+        return fastest != Double.MAX_VALUE && state.ewmaNanos > fastest * OUTLIER_FACTOR;
+    }
+
+    /**
+     * 至少保留一个可用的节点，不会把所有节点都摘除
+     */
+    private boolean canEject(NodeState state) {
+        for (NodeState other : nodes.values()) {
+            if (other != state && other.connection != null && other.isAvailable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 搜索请求的preference，让分片副本优先在没有被摘除的节点上执行，
+     * 所有节点都正常时返回null，使用ES默认的副本选择
+     */
+    public String preference() {
+        if (!enabled) {
+            return null;
+        }
+        List<String> healthy = new ArrayList<>();
+        for (NodeState state : nodes.values()) {
+            if (state.isAvailable()) {
+                healthy.add(state.node.getId());
+            }
+        }
+        if (healthy.isEmpty() || healthy.size() == nodes.size()) {
+            return null;
+        }
+        return "_prefer_nodes:" + String.join(",", healthy);
+    }
+
+    /**
+     * 每个节点的EWMA、在途请求数、失败次数、拒绝率和摘除状态
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-16s %-22s %10s %8s %8s %8s %8s %9s %s%n",
+                "node", "address", "ewma(ms)", "inflight", "samples", "failures", "rejected", "reject(%)", "state"));
+        for (NodeState state : nodes.values()) {
+            report.append(String.format("%-16s %-22s %10.2f %8d %8d %8d %8d %9.1f %s%n",
+                    state.node.getName(), state.node.getAddress(), state.ewmaNanos / 1e6, state.outstanding.get(),
+                    state.samples.get(), state.consecutiveFailures, state.rejections.get(), state.rejectionRate * 100,
+                    state.isAvailable() ? "正常" : "摘除"));
+        }
+        return report.toString();
+    }
+
+    /**
+     * 清空所有节点的统计
+     */
+    public void reset() {
+        nodes.clear();
+    }
+
+    /**
+     * 一个节点的状态，连接取最近一次请求使用的连接
+     */
+    static final class NodeState {
+        private final DiscoveryNode node;
+        private volatile Transport.Connection connection;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+        private final AtomicLong nextProbeNanos = new AtomicLong(System.nanoTime() + PROBE_INTERVAL_NANOS);
+        private volatile double ewmaNanos;
+        // 最近的响应中被拒绝的比例
+        private volatile double rejectionRate;
+        // 上次恢复以来统计拒绝率的响应数
+        private long rejectionSamples;
+        private volatile long ejectedUntilNanos;
+        private long ejectNanos = MIN_EJECT_NANOS;
+        private int consecutiveFailures;
+
+        NodeState(DiscoveryNode node) {
+            this.node = node;
+        }
+
+        void requestStarted() {
+            outstanding.incrementAndGet();
+        }
+
+        void requestFinished() {
+            outstanding.decrementAndGet();
+        }
+
+        double score() {
+            return ewmaNanos * (outstanding.get() + 1);
+        }
+
+        /**
+         * 被摘除后，直到探测成功之前都不可用
+         */
+        boolean isAvailable() {
+            return ejectedUntilNanos == 0;
+        }
+
+        /**
+         * 到了探测时间（摘除到期，或者长时间没有样本）时，只让一个请求去探测
+         */
+        boolean claimProbe(long now) {
+            long next = nextProbeNanos.get();
+            return now - next >= 0 && nextProbeNanos.compareAndSet(next, now + PROBE_INTERVAL_NANOS);
+        }
+
+        synchronized void recordLatency(long latencyNanos) {
+            ewmaNanos = samples.getAndIncrement() == 0 ? latencyNanos : ALPHA * latencyNanos + (1 - ALPHA) * ewmaNanos;
+            consecutiveFailures = 0;
+            if (isAvailable()) {
+                nextProbeNanos.set(System.nanoTime() + PROBE_INTERVAL_NANOS);
+            }
+        }
+
+        /**
+         * 记录一次失败，返回是否应该摘除
+         */
+        synchronized boolean recordFailure() {
+            consecutiveFailures++;
+            // 探测请求失败或者连续失败达到阈值
+            return !isAvailable() || consecutiveFailures >= FAILURE_THRESHOLD;
+        }
+
+        /**
+         * 记录一个响应中被拒绝的比例（整个请求被拒绝为1），返回是否应该摘除
+         */
+        synchronized boolean recordRejection(double rejected) {
+            rejectionRate = REJECTION_ALPHA * rejected + (1 - REJECTION_ALPHA) * rejectionRate;
+            rejectionSamples++;
+            if (rejected > 0) {
+                rejections.incrementAndGet();
+            }
+            // 探测请求被拒绝，或者样本足够时拒绝率超过阈值
+            return rejected > 0 && !isAvailable()
+                    || rejectionSamples >= MIN_SAMPLES && rejectionRate > REJECTION_THRESHOLD;
+        }
+
+        /**
+         * 摘除一段时间，到期后探测，每次连续摘除的时间加倍
+         */
+        synchronized void eject(long now) {
+            long until = now + ejectNanos;
+            ejectedUntilNanos = until == 0 ? 1 : until;
+            nextProbeNanos.set(until);
+            ejectNanos = Math.min(ejectNanos * 2, MAX_EJECT_NANOS);
+        }
+
+        /**
+         * 请求成功且不是异常慢、没有过载的节点，恢复可用并重置摘除时间，摘除前的拒绝率不再计入
+         */
+        synchronized void recover() {
+            if (!isAvailable()) {
+                rejectionRate = 0;
+                rejectionSamples = 0;
+            }
+            ejectedUntilNanos = 0;
+            ejectNanos = MIN_EJECT_NANOS;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.itheima.es.client;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.FilterClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群过载时平稳降级的client
+ * <p>
+ * 节点的write、bulk、search线程池队列满时会拒绝请求（EsRejectedExecutionException，状态码429），
+ * 直接抛出会丢掉这次写入，马上重试又会让过载更严重。这个client包装共享的TransportClient，对数据请求：
+ * <ul>
+ * <li>被拒绝的请求按指数退避加随机抖动重试，bulk只重发被拒绝的文档，成功的和因为其他原因失败的文档不重发</li>
+ * <li>所有重试共用一个{@link RetryBudget}，预算用完后不再重试，被拒绝的文档作为失败返回给调用方</li>
+ * <li>在途请求数由{@link AdaptiveLimiter}按拒绝情况自动调整，超出的请求在客户端排队，不会堆到集群的队列里</li>
+ * </ul>
+ * 按节点的熔断由{@link NodeSelectionPlugin}完成，拒绝率高的节点被{@link NodeSelector}摘除一段时间。
+ * 集群管理请求（创建索引、健康检查等）不经过这里的处理。
+ * <p>
+ * 通过{@link ClientHolder#getResilientClient()}获取，和普通client一样使用，不需要自己close。
+ */
+public class ResilientClient extends FilterClient {
+
+    private static final String DATA_ACTION_PREFIX = "indices:data/";
+
+    private final AdaptiveLimiter limiter;
+    private final RetryBudget budget;
+    // 包括第一次在内最多发送的次数
+    private final int maxAttempts;
+    private final TimeValue initialDelay;
+    private final TimeValue maxDelay;
+
+    public ResilientClient(Client in, ClientConfig config) {
+        this(in, new AdaptiveLimiter(config.getMaxConcurrency(), 1, config.getMaxConcurrency()),
+                new RetryBudget(config.getRetryBudgetRatio(), config.getRetryBudgetMinPerSecond()),
+                config.getRetryMaxAttempts(), config.getRetryInitialDelay(), config.getRetryMaxDelay());
+    }
+
+    public ResilientClient(Client in, AdaptiveLimiter limiter, RetryBudget budget, int maxAttempts,
+                           TimeValue initialDelay, TimeValue maxDelay) {
+        super(in);
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts必须大于0：" + maxAttempts);
+        }
+        this.limiter = limiter;
+        this.budget = budget;
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * 线程池满造成的拒绝，包括传输层包装过的和CompletableFuture包装过的
+     */
+    public static boolean isRejection(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (ExceptionsHelper.unwrapCause(failure) instanceof EsRejectedExecutionException) {
+            return true;
+        }
+        return failure instanceof Exception
+                && ExceptionsHelper.status((Exception) failure) == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <Request extends ActionRequest, Response extends ActionResponse,
+            RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+            Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+        if (!action.name().startsWith(DATA_ACTION_PREFIX)) {
+            super.doExecute(action, request, listener);
+            return;
+        }
+        if (action == BulkAction.INSTANCE) {
+            BulkRequest bulk = (BulkRequest) request;
+            budget.deposit(bulk.numberOfActions());
+            new BulkRetry(bulk, (ActionListener<BulkResponse>) listener).send(bulk, positions(bulk), 0);
+        } else {
+            budget.deposit(1);
+            send(action, request, listener, 0);
+        }
+    }
+
+    private <Request extends ActionRequest, Response extends ActionResponse,
+            RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void send(
+            Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener,
+            int attempt) {
+        submit(action, request).whenComplete((response, failure) -> {
+            if (failure == null) {
+                listener.onResponse(response);
+            } else if (isRejection(failure) && attempt + 1 < maxAttempts && budget.tryWithdraw(1) == 1) {
+                schedule(attempt, () -> send(action, request, listener, attempt + 1));
+            } else {
+                listener.onFailure(unwrap(failure));
+            }
+        });
+    }
+
+    /**
+     * 经过AdaptiveLimiter发给被包装的client
+     */
+    private <Request extends ActionRequest, Response extends ActionResponse,
+            RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> CompletableFuture<Response> submit(
+            Action<Request, Response, RequestBuilder> action, Request request) {
+        return limiter.submit(() -> {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            in().execute(action, request, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        }, ResilientClient::isOverloaded);
+    }
+
+    /**
+     * 请求成功但有一部分被拒绝：bulk中的文档，或者search中的分片
+     */
+    private static boolean isOverloaded(ActionResponse response) {
+        return rejectedRatio(response) > 0;
+    }
+
+    /**
+     * 成功的响应中被拒绝的比例：bulk中被拒绝的文档数 / 文档数，search中被拒绝的分片数 / 分片数，其他响应为0
+     */
+    static double rejectedRatio(ActionResponse response) {
+        if (response instanceof BulkResponse) {
+            BulkItemResponse[] items = ((BulkResponse) response).getItems();
+            int rejected = 0;
+            for (BulkItemResponse item : items) {
+                if (isRejected(item)) {
+                    rejected++;
+                }
+            }
+            return items.length == 0 ? 0 : (double) rejected / items.length;
+        } else if (response instanceof SearchResponse) {
+            SearchResponse search = (SearchResponse) response;
+            int rejected = 0;
+            for (ShardSearchFailure failure : search.getShardFailures()) {
+                if (failure.status() == RestStatus.TOO_MANY_REQUESTS) {
+                    rejected++;
+                }
+            }
+            return search.getTotalShards() == 0 ? 0 : (double) rejected / search.getTotalShards();
+        }
+        return 0;
+    }
+
+    private static boolean isRejected(BulkItemResponse item) {
+        return item.isFailed() && (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS
+                || isRejection(item.getFailure().getCause()));
+    }
+
+    /**
+     * 第attempt次重试之前等待的时间：上限为 initialDelay * 2^attempt，不超过maxDelay，
+     * 实际等待上限的一半加上一半以内的随机时间，同时被拒绝的请求不会在同一时刻一起重试
+     */
+    private void schedule(int attempt, Runnable retry) {
+        long cap = Math.min(maxDelay.millis(), initialDelay.millis() << Math.min(attempt, 20));
+        long delay = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        threadPool().schedule(TimeValue.timeValueMillis(delay), ThreadPool.Names.GENERIC, retry);
+    }
+
+    private static int[] positions(BulkRequest bulk) {
+        int[] positions = new int[bulk.numberOfActions()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        return positions;
+    }
+
+    private static Exception unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure instanceof Exception ? (Exception) failure : new ElasticsearchException(failure);
+    }
+
+    @Override
+    public String toString() {
+        return "ResilientClient{" + limiter + "，" + budget + "}";
+    }
+
+    /**
+     * 一个bulk请求的重试过程，每次只重发上一次被拒绝的文档，结果按原来的顺序合并成一个BulkResponse
+     */
+    private class BulkRetry {
+
+        private final BulkRequest original;
+        private final ActionListener<BulkResponse> listener;
+        private final BulkItemResponse[] items;
+        private final long startNanos = System.nanoTime();
+
+        BulkRetry(BulkRequest original, ActionListener<BulkResponse> listener) {
+            this.original = original;
+            this.listener = listener;
+            this.items = new BulkItemResponse[original.numberOfActions()];
+        }
+
+        /**
+         * @param positions request中每个文档在原始请求中的位置
+         */
+        void send(BulkRequest request, int[] positions, int attempt) {
+            submit(BulkAction.INSTANCE, request).whenComplete((response, failure) -> {
+                if (failure != null) {
+                    onFailure(request, positions, attempt, failure);
+                    return;
+                }
+                List<Integer> rejected = new ArrayList<>();
+                for (BulkItemResponse item : response) {
+                    int position = positions[item.getItemId()];
+                    items[position] = item.isFailed()
+                            ? new BulkItemResponse(position, item.getOpType(), item.getFailure())
+                            : new BulkItemResponse(position, item.getOpType(), item.getResponse());
+                    if (isRejected(item)) {
+                        rejected.add(position);
+                    }
+                }
+                retry(rejected, attempt);
+            });
+        }
+
+        /**
+         * 整个请求失败：第一次发送时直接把异常交给调用方，和不经过这里时一样；
+         * 重试时失败则把这次重发的文档都记为失败，之前已经完成的文档不受影响
+         */
+        private void onFailure(BulkRequest request, int[] positions, int attempt, Throwable failure) {
+            if (isRejection(failure) && attempt + 1 < maxAttempts
+                    && budget.tryWithdraw(positions.length) == positions.length) {
+                schedule(attempt, () -> send(request, positions, attempt + 1));
+                return;
+            }
+            if (attempt == 0) {
+                listener.onFailure(unwrap(failure));
+                return;
+            }
+            Exception cause = unwrap(failure);
+            for (int position : positions) {
+                DocWriteRequest<?> doc = original.requests().get(position);
+                items[position] = new BulkItemResponse(position, doc.opType(),
+                        new BulkItemResponse.Failure(doc.index(), doc.type(), doc.id(), cause));
+            }
+            finish();
+        }
+
+        /**
+         * 预算只够重发一部分时，其余被拒绝的文档保留原来的失败结果
+         */
+        private void retry(List<Integer> rejected, int attempt) {
+            if (rejected.isEmpty() || attempt + 1 >= maxAttempts) {
+                finish();
+                return;
+            }
+            int allowed = budget.tryWithdraw(rejected.size());
+            if (allowed == 0) {
+                finish();
+                return;
+            }
+            BulkRequest request = new BulkRequest()
+                    .timeout(original.timeout())
+                    .waitForActiveShards(original.waitForActiveShards());
+            request.setRefreshPolicy(original.getRefreshPolicy());
+            int[] positions = new int[allowed];
+            for (int i = 0; i < allowed; i++) {
+                positions[i] = rejected.get(i);
+                request.add(original.requests().get(positions[i]));
+            }
+            schedule(attempt, () -> send(request, positions, attempt + 1));
+        }
+
+        private void finish() {
+            listener.onResponse(new BulkResponse(items,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.itheima.es.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 重试预算，限制重试占正常请求的比例
+ * <p>
+ * 每个第一次发送的请求（bulk中的每个文档算一个）存入ratio个令牌，每次重试取出一个令牌，没有令牌时不再重试。
+ * 令牌在约10秒内逐渐失效，另外每秒固定补充minPerSecond个，保证请求很少时也能重试。
+ * 集群持续过载时令牌很快用完，重试带来的额外负载最多为正常负载的ratio倍，不会形成重试风暴。
+ * 同一个{@link ResilientClient}上的index、bulk、search共用一个预算。
+ */
+public class RetryBudget {
+
+    // 令牌的有效时间，余额按这个时间常数指数衰减
+    private static final double WINDOW_SECONDS = 10;
+
+    private final double ratio;
+    private final double minPerSecond;
+    private double balance;
+    private long lastNanos = System.nanoTime();
+    private final LongAdder granted = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+
+    /**
+     * @param ratio        每个请求允许的重试次数，0.2表示最多重试正常请求的20%
+     * @param minPerSecond 每秒固定补充的令牌数
+     */
+    public RetryBudget(double ratio, double minPerSecond) {
+        if (ratio < 0 || minPerSecond < 0) {
+            throw new IllegalArgumentException("ratio和minPerSecond不能小于0：" + ratio + "，" + minPerSecond);
+        }
+        this.ratio = ratio;
+        this.minPerSecond = minPerSecond;
+        this.balance = minPerSecond * WINDOW_SECONDS;
+    }
+
+    /**
+     * 记录count个第一次发送的请求
+     */
+    public synchronized void deposit(int count) {
+        refill();
+        balance += ratio * count;
+    }
+
+    /**
+     * 申请count次重试，返回实际允许的次数，可能少于count
+     */
+    public synchronized int tryWithdraw(int count) {
+        refill();
+        int allowed = (int) Math.min(count, Math.floor(balance));
+        balance -= allowed;
+        granted.add(allowed);
+        denied.add(count - allowed);
+        return allowed;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastNanos = now;
+        balance = balance * Math.exp(-seconds / WINDOW_SECONDS) + minPerSecond * seconds;
+    }
+
+    public synchronized double getBalance() {
+        refill();
+        return balance;
+    }
+
+    /**
+     * 允许的重试次数
+     */
+    public long getGranted() {
+        return granted.sum();
+    }
+
+    /**
+     * 因为预算用完而没有重试的次数
+     */
+    public long getDenied() {
+        return denied.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RetryBudget{余额=%.1f，重试=%d，预算不足=%d}", getBalance(), getGranted(), getDenied());
+    }
+}
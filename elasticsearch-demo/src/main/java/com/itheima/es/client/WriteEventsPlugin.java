@@ -0,0 +1,99 @@
+package com.itheima.es.client;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.plugins.NetworkPlugin;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.transport.Transport;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportInterceptor;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportResponseHandler;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 写请求完成后发出{@link IndexWriteEvents}通知的TransportClient插件
+ * <p>
+ * index、update、delete、bulk以及delete_by_query等indices:data/write/开头的请求，不管由哪段代码发出
+ * （prepareIndex、ElasticsearchTemplate、BulkProcessor），完成后都通知请求中的每个索引名（可能是别名）。
+ * 部分失败的bulk也可能已经写入了一部分文档，所以失败时同样通知。
+ * <p>
+ * 通知发生在写请求返回时，此时写入通常还没有refresh，对搜索不可见，监听方需要自己考虑refresh间隔。
+ */
+public class WriteEventsPlugin extends Plugin implements NetworkPlugin {
+
+    private static final String WRITE_ACTION_PREFIX = "indices:data/write/";
+
+    @Override
+    public List<TransportInterceptor> getTransportInterceptors(ThreadContext threadContext) {
+        return Collections.singletonList(new TransportInterceptor() {
+            @Override
+            public AsyncSender interceptSender(AsyncSender sender) {
+                return new NotifyingSender(sender);
+            }
+        });
+    }
+
+    private static class NotifyingSender implements TransportInterceptor.AsyncSender {
+
+        private final TransportInterceptor.AsyncSender sender;
+
+        NotifyingSender(TransportInterceptor.AsyncSender sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public <T extends TransportResponse> void sendRequest(Transport.Connection connection, String action,
+                                                              TransportRequest request, TransportRequestOptions options,
+                                                              TransportResponseHandler<T> handler) {
+            if (!action.startsWith(WRITE_ACTION_PREFIX)) {
+                sender.sendRequest(connection, action, request, options, handler);
+                return;
+            }
+            Set<String> indices = indicesOf(request);
+            sender.sendRequest(connection, action, request, options, new TransportResponseHandler<T>() {
+                @Override
+                public T newInstance() {
+                    return handler.newInstance();
+                }
+
+                @Override
+                public void handleResponse(T response) {
+                    indices.forEach(IndexWriteEvents::written);
+                    handler.handleResponse(response);
+                }
+
+                @Override
+                public void handleException(TransportException exp) {
+                    indices.forEach(IndexWriteEvents::written);
+                    handler.handleException(exp);
+                }
+
+                @Override
+                public String executor() {
+                    return handler.executor();
+                }
+            });
+        }
+    }
+
+    private static Set<String> indicesOf(TransportRequest request) {
+        Set<String> indices = new LinkedHashSet<>();
+        if (request instanceof BulkRequest) {
+            for (DocWriteRequest<?> item : ((BulkRequest) request).requests()) {
+                indices.add(item.index());
+            }
+        } else if (request instanceof IndicesRequest) {
+            Collections.addAll(indices, ((IndicesRequest) request).indices());
+        }
+        return indices;
+    }
+}
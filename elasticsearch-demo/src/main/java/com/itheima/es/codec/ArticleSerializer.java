@@ -0,0 +1,131 @@
+package com.itheima.es.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.itheima.es.Article;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Article序列化
+ * <p>
+ * 原来的写法每个文档都要new一个ObjectMapper，先生成String，setSource时再把String编码成byte[]。
+ * 这里所有线程共用一个线程安全的ObjectWriter，直接写进每个线程复用的缓冲区，
+ * 最后只拷贝一次得到BytesReference交给index/bulk请求。
+ * <p>
+ * 除了JSON还可以编码成SMILE或CBOR两种二进制格式，数字和重复的字段名更紧凑，服务端解析也更快，
+ * 带宽受限的bulk导入可以考虑使用。ES按请求中的格式保存_source，读取时ArticleHitMapper会自动识别格式。
+ * 默认格式通过系统属性指定，例如 -Des.source.format=smile，可选json、smile、cbor。
+ */
+public final class ArticleSerializer {
+
+    private static final Map<XContentType, ObjectWriter> WRITERS = new EnumMap<>(XContentType.class);
+    private static final XContentType DEFAULT_TYPE = parseContentType(System.getProperty("es.source.format", "json"));
+    // 超过这个大小的缓冲区用完后不再保留，避免一个超大文档让线程一直占着大块内存
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+    private static final ThreadLocal<ReusableBuffer> BUFFER = ThreadLocal.withInitial(ReusableBuffer::new);
+
+    static {
+        WRITERS.put(XContentType.JSON, new ObjectMapper().writerFor(Article.class));
+        // SmileFactory默认写出:)\n头，XContentFactory靠它识别SMILE格式
+        WRITERS.put(XContentType.SMILE, new ObjectMapper(new SmileFactory()).writerFor(Article.class));
+        WRITERS.put(XContentType.CBOR, new ObjectMapper(new CBORFactory()).writerFor(Article.class));
+    }
+
+    private ArticleSerializer() {
+    }
+
+    /**
+     * 把json、smile、cbor（不区分大小写）转换成XContentType
+     */
+    public static XContentType parseContentType(String format) {
+        XContentType type = XContentType.fromMediaTypeOrFormat(format.toLowerCase(Locale.ROOT));
+        if (type != XContentType.JSON && type != XContentType.SMILE && type != XContentType.CBOR) {
+            throw new IllegalArgumentException("不支持的文档格式[" + format + "]，可选json、smile、cbor");
+        }
+        return type;
+    }
+
+    /**
+     * 按默认格式序列化，返回的BytesReference不会再被修改，可以直接交给IndexRequest，
+     * 请求的格式使用{@link #contentType()}
+     */
+    public static BytesReference toBytes(Article article) {
+        return toBytes(article, DEFAULT_TYPE);
+    }
+
+    /**
+     * 按指定格式序列化，请求中的格式必须和这里的type一致
+     */
+    public static BytesReference toBytes(Article article, XContentType type) {
+        ObjectWriter writer = WRITERS.get(type);
+        if (writer == null) {
+            throw new IllegalArgumentException("不支持的文档格式[" + type + "]");
+        }
+        ReusableBuffer buffer = BUFFER.get();
+        buffer.reset();
+        try {
+            writer.writeValue(buffer, article);
+            return new BytesArray(buffer.toByteArrayExact());
+        } catch (IOException e) {
+            throw new UncheckedIOException("序列化文档[" + article.getId() + "]失败", e);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    /**
+     * 序列化成XContentBuilder，和testAddDocument中手工构建文档的方式一致
+     */
+    public static XContentBuilder toXContent(Article article) throws IOException {
+        return toXContent(article, XContentType.JSON);
+    }
+
+    public static XContentBuilder toXContent(Article article, XContentType type) throws IOException {
+        return XContentFactory.contentBuilder(type)
+                .startObject()
+                .field("id", article.getId())
+                .field("title", article.getTitle())
+                .field("content", article.getContent())
+                .field("category", article.getCategory())
+                .endObject();
+    }
+
+    /**
+     * {@link #toBytes(Article)}使用的默认格式
+     */
+    public static XContentType contentType() {
+        return DEFAULT_TYPE;
+    }
+
+    private static class ReusableBuffer extends ByteArrayOutputStream {
+
+        ReusableBuffer() {
+            super(4096);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        // 只拷贝实际写入的部分，不像toByteArray()那样需要同步
+        byte[] toByteArrayExact() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+}
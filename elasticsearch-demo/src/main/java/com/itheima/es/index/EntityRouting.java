@@ -0,0 +1,52 @@
+package com.itheima.es.index;
+
+import java.lang.reflect.Field;
+import java.util.Optional;
+
+/**
+ * 读取实体上{@link Routing}标记的路由字段
+ */
+public final class EntityRouting {
+
+    // 每个类只查找一次路由字段
+    private static final ClassValue<Optional<Field>> ROUTING_FIELDS = new ClassValue<Optional<Field>>() {
+        @Override
+        protected Optional<Field> computeValue(Class<?> type) {
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (field.isAnnotationPresent(Routing.class)) {
+                        field.setAccessible(true);
+                        return Optional.of(field);
+                    }
+                }
+            }
+            return Optional.empty();
+        }
+    };
+
+    private EntityRouting() {
+    }
+
+    /**
+     * 实体的routing，没有路由字段或者字段为null时返回null
+     */
+    public static String routingOf(Object entity) {
+        Optional<Field> field = ROUTING_FIELDS.get(entity.getClass());
+        if (!field.isPresent()) {
+            return null;
+        }
+        try {
+            Object value = field.get().get(entity);
+            return value == null ? null : value.toString();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("无法读取路由字段" + field.get(), e);
+        }
+    }
+
+    /**
+     * 路由字段的名称，没有时返回null
+     */
+    public static String routingField(Class<?> entityClass) {
+        return ROUTING_FIELDS.get(entityClass).map(Field::getName).orElse(null);
+    }
+}
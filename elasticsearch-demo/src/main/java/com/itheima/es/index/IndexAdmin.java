@@ -0,0 +1,38 @@
+package com.itheima.es.index;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * 索引管理
+ */
+public final class IndexAdmin {
+
+    private IndexAdmin() {
+    }
+
+    /**
+     * 按实体类上@IndexSettings中的分片数、副本数和刷新间隔创建索引，没有注解时使用注解的默认值
+     */
+    public static void createIndex(Client client, String index, Class<?> entityClass) {
+        client.admin().indices().prepareCreate(index)
+                .setSettings(settingsOf(entityClass))
+                .get();
+    }
+
+    public static Settings settingsOf(Class<?> entityClass) {
+        IndexSettings annotation = entityClass.getAnnotation(IndexSettings.class);
+        if (annotation == null) {
+            annotation = Defaults.class.getAnnotation(IndexSettings.class);
+        }
+        return Settings.builder()
+                .put("index.number_of_shards", annotation.shards())
+                .put("index.number_of_replicas", annotation.replicas())
+                .put("index.refresh_interval", annotation.refreshInterval())
+                .build();
+    }
+
+    @IndexSettings
+    private static final class Defaults {
+    }
+}
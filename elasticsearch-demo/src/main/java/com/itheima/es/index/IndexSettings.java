@@ -0,0 +1,30 @@
+package com.itheima.es.index;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 实体对应索引的创建参数，由{@link IndexAdmin#createIndex}读取
+ * <p>
+ * 作用与spring data中@Document的shards、replicas、refreshInterval相同。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface IndexSettings {
+
+    /**
+     * 主分片数，创建后不能修改
+     */
+    int shards() default 5;
+
+    /**
+     * 每个主分片的副本数
+     */
+    int replicas() default 1;
+
+    String refreshInterval() default "1s";
+}
@@ -0,0 +1,573 @@
+package com.itheima.es.index;
+
+import com.itheima.es.reindex.ArticleReindexer;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeResponse;
+import org.elasticsearch.action.admin.indices.rollover.RolloverRequestBuilder;
+import org.elasticsearch.action.admin.indices.rollover.RolloverResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.Priority;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 按别名滚动的文章索引
+ * <p>
+ * 逻辑名（例如blog3）不再是一个索引，而是指向所有后备索引blog3-000001、blog3-000002…的读别名，查询时看到全部历史；
+ * 写别名blog3-write只指向最新的后备索引，写入总是落在一个较小的热索引上，段合并、刷新和分片恢复的开销不再随总数据量增长。
+ * <ul>
+ * <li>{@link #rollover()}：热索引的文档数、主分片大小或存在时间超过阈值时创建下一个后备索引，并把写别名移过去</li>
+ * <li>{@link #optimize()}：不再写入的旧索引设为只读，shrink成1个分片并force merge成1个段，然后在读别名中替换原索引</li>
+ * </ul>
+ * 5.6的rollover只支持max_docs和max_age条件，max_size由客户端读取主分片的大小判断，超过时无条件rollover；
+ * 也没有is_write_index，所以写别名和读别名是两个别名，写别名始终只指向一个索引。
+ * <p>
+ * 旧索引只读之后其中的文章不能再修改和删除，适合以新增为主、很少修改旧文章的场景。
+ * 按id修改文章时先用{@link #locate}找到文章所在的后备索引，读别名指向多个索引时不能按id写入。
+ */
+public class RolloverManager implements Closeable {
+
+    private static final String WRITE_SUFFIX = "-write";
+    private static final String FIRST_SUFFIX = "-000001";
+    private static final String SHRUNK_SUFFIX = "-shrunk";
+    private static final String BLOCKS_WRITE = "index.blocks.write";
+    private static final String REQUIRE_NAME = "index.routing.allocation.require._name";
+    // 写别名、后备索引和shrink之后的索引名在逻辑名之后的部分
+    private static final Pattern DERIVED_SUFFIX = Pattern.compile(
+            "(" + WRITE_SUFFIX + "|-\\d+(" + SHRUNK_SUFFIX + ")?)$");
+
+    private final Client client;
+    private final String readAlias;
+    private final String writeAlias;
+    private final String type;
+    private final Settings settings;
+    private final String mapping;
+    private final long maxDocs;
+    private final ByteSizeValue maxSize;
+    private final TimeValue maxAge;
+    private final int maxNumSegments;
+    private final TimeValue timeout;
+    private ScheduledExecutorService scheduler;
+
+    private RolloverManager(Builder builder) {
+        this.client = builder.client;
+        this.readAlias = builder.alias;
+        this.writeAlias = builder.alias + WRITE_SUFFIX;
+        this.type = builder.type;
+        this.settings = builder.settings;
+        this.mapping = builder.mapping;
+        this.maxDocs = builder.maxDocs;
+        this.maxSize = builder.maxSize;
+        this.maxAge = builder.maxAge;
+        this.maxNumSegments = builder.maxNumSegments;
+        this.timeout = builder.timeout;
+    }
+
+    /**
+     * @param alias 逻辑名，即读别名，写别名为 alias-write
+     */
+    public static Builder builder(Client client, String alias, String type) {
+        return new Builder(client, alias, type);
+    }
+
+    /**
+     * 索引名或者别名所属的逻辑名：blog3-write、blog3-000002、blog3-000001-shrunk都属于blog3，其他名字原样返回
+     */
+    public static String logicalName(String index) {
+        return DERIVED_SUFFIX.matcher(index).replaceFirst("");
+    }
+
+    public String getReadAlias() {
+        return readAlias;
+    }
+
+    public String getWriteAlias() {
+        return writeAlias;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 写别名不存在时创建第一个后备索引 alias-000001，并加上读别名和写别名，返回是否创建了索引
+     * <p>
+     * 不会修改已有的数据：已经有一个和逻辑名同名的普通索引（旧的blog2、blog3）时抛出异常，需要先用{@link #migrate()}迁移。
+     */
+    public synchronized boolean bootstrap() {
+        IndicesAdminClient indices = client.admin().indices();
+        if (hasWriteAlias(indices)) {
+            return false;
+        }
+        if (indices.prepareExists(readAlias).get().isExists()) {
+            throw new IllegalStateException("已经有普通索引[" + readAlias + "]，需要先用migrate()迁移到后备索引");
+        }
+        prepareCreateFirst(indices).addAlias(new Alias(readAlias)).addAlias(new Alias(writeAlias)).get();
+        System.out.println("创建后备索引[" + readAlias + FIRST_SUFFIX + "]，读别名[" + readAlias + "]，写别名[" + writeAlias + "]");
+        return true;
+    }
+
+    /**
+     * 把和逻辑名同名的普通索引迁移到第一个后备索引，没有这个索引时和{@link #bootstrap()}相同，返回是否创建了索引
+     * <p>
+     * 先把旧索引设为只读，再用{@link ArticleReindexer}把文章复制到第一个后备索引，
+     * 没有写入失败并且两个索引的文章数相同时，才在同一个aliases请求中删除旧索引并加上两个别名，查询不会看到空的索引。
+     * 复制期间写入旧索引的请求会被拒绝；复制失败时删除第一个后备索引并恢复旧索引的写入，旧索引保持不变。
+     * 会删除旧索引，所以只在显式调用时执行，{@link #bootstrap()}和定时任务都不会迁移。
+     */
+    public synchronized boolean migrate() throws Exception {
+        IndicesAdminClient indices = client.admin().indices();
+        if (hasWriteAlias(indices)) {
+            return false;
+        }
+        if (!indices.prepareExists(readAlias).get().isExists()) {
+            return bootstrap();
+        }
+        String first = readAlias + FIRST_SUFFIX;
+        prepareCreateFirst(indices).get();
+        try {
+            // 只读之后refresh，scroll能看到所有文章，复制期间也不会再有新的写入
+            indices.prepareUpdateSettings(readAlias)
+                    .setSettings(Settings.builder().put(BLOCKS_WRITE, true))
+                    .get();
+            indices.prepareRefresh(readAlias).get();
+            ArticleReindexer.ReindexResult result = ArticleReindexer.builder(client, readAlias, type, first, type)
+                    .build().run();
+            if (result.getFailed() > 0) {
+                throw new IllegalStateException("有" + result.getFailed() + "篇文章复制到[" + first + "]失败");
+            }
+            indices.prepareRefresh(first).get();
+            long expected = count(readAlias);
+            long copied = count(first);
+            if (expected != copied) {
+                throw new IllegalStateException("索引[" + readAlias + "]有" + expected + "篇文章，[" + first + "]只有" + copied + "篇");
+            }
+        } catch (Exception e) {
+            try {
+                indices.prepareDelete(first).get();
+                indices.prepareUpdateSettings(readAlias)
+                        .setSettings(Settings.builder().putNull(BLOCKS_WRITE))
+                        .get();
+            } catch (RuntimeException restoreFailure) {
+                e.addSuppressed(restoreFailure);
+            }
+            throw e;
+        }
+        indices.prepareAliases()
+                .addAliasAction(AliasActions.removeIndex().index(readAlias))
+                .addAliasAction(AliasActions.add().index(first).alias(readAlias))
+                .addAliasAction(AliasActions.add().index(first).alias(writeAlias))
+                .get();
+        System.out.println("索引[" + readAlias + "]已迁移到后备索引[" + first + "]，原索引已删除");
+        return true;
+    }
+
+    private long count(String index) {
+        return client.prepareSearch(index).setTypes(type).setSize(0).get().getHits().getTotalHits();
+    }
+
+    private boolean hasWriteAlias(IndicesAdminClient indices) {
+        if (indices.prepareAliasesExist(writeAlias).get().exists()) {
+            return true;
+        }
+        if (indices.prepareAliasesExist(readAlias).get().exists()) {
+            throw new IllegalStateException("别名[" + readAlias + "]已经存在，但没有写别名[" + writeAlias + "]");
+        }
+        return false;
+    }
+
+    private CreateIndexRequestBuilder prepareCreateFirst(IndicesAdminClient indices) {
+        CreateIndexRequestBuilder create = indices.prepareCreate(readAlias + FIRST_SUFFIX).setSettings(settings);
+        if (mapping != null) {
+            create.addMapping(type, mapping, XContentType.JSON);
+        }
+        return create;
+    }
+
+    /**
+     * 写别名当前指向的热索引
+     */
+    public String currentWriteIndex() {
+        ImmutableOpenMap<String, List<AliasMetaData>> aliases = client.admin().indices()
+                .prepareGetAliases(writeAlias).get().getAliases();
+        if (aliases.size() != 1) {
+            throw new IllegalStateException("写别名[" + writeAlias + "]应该只指向一个索引，实际为" + aliases.keys());
+        }
+        return aliases.keysIt().next();
+    }
+
+    /**
+     * 读别名当前指向的所有后备索引，按id和routing读取文章时在每个后备索引上get
+     */
+    public List<String> backingIndices() {
+        List<String> indices = new ArrayList<>();
+        client.admin().indices().prepareGetAliases(readAlias).get().getAliases().keysIt().forEachRemaining(indices::add);
+        return indices;
+    }
+
+    /**
+     * 满足任一条件时创建下一个后备索引，新索引同时加入读别名，写别名从旧索引移到新索引
+     *
+     * @return 新的热索引，没有满足条件时返回null
+     */
+    public synchronized String rollover() {
+        String current = currentWriteIndex();
+        RolloverRequestBuilder request = client.admin().indices().prepareRolloverIndex(writeAlias)
+                .settings(settings)
+                .alias(new Alias(readAlias));
+        if (mapping != null) {
+            request.mapping(type, mapping);
+        }
+        // 没有条件的rollover总是执行，所以max_size超过时不再加其他条件
+        if (maxSize == null || primarySize(current) < maxSize.getBytes()) {
+            if (maxDocs <= 0 && maxAge == null) {
+                return null;
+            }
+            if (maxDocs > 0) {
+                request.addMaxIndexDocsCondition(maxDocs);
+            }
+            if (maxAge != null) {
+                request.addMaxIndexAgeCondition(maxAge);
+            }
+        }
+        RolloverResponse response = request.get();
+        if (!response.isRolledOver()) {
+            return null;
+        }
+        System.out.println("索引[" + readAlias + "]滚动：" + response.getOldIndex() + " -> " + response.getNewIndex()
+                + "，条件" + response.getConditionStatus());
+        return response.getNewIndex();
+    }
+
+    private long primarySize(String index) {
+        return client.admin().indices().prepareStats(index).clear().setStore(true).get()
+                .getIndex(index).getPrimaries().getStore().getSizeInBytes();
+    }
+
+    /**
+     * 把读别名中除热索引之外、还没有处理过的后备索引shrink成1个分片并force merge，设为只读
+     *
+     * @return 处理后的索引名，shrink过的索引名为 原名-shrunk
+     */
+    public synchronized List<String> optimize() {
+        String current = currentWriteIndex();
+        ClusterState state = client.admin().cluster().prepareState().clear()
+                .setMetaData(true)
+                .setRoutingTable(true)
+                .setNodes(true)
+                .setIndices(readAlias)
+                .get().getState();
+        List<String> optimized = new ArrayList<>();
+        for (IndexMetaData index : state.metaData()) {
+            String name = index.getIndex().getName();
+            if (name.equals(current) || !index.getAliases().containsKey(readAlias)) {
+                continue;
+            }
+            if (index.getNumberOfShards() == 1 && index.getSettings().getAsBoolean(BLOCKS_WRITE, false)) {
+                continue;
+            }
+            optimized.add(index.getNumberOfShards() == 1 ? freeze(name) : shrink(index, state));
+        }
+        return optimized;
+    }
+
+    private String freeze(String index) {
+        client.admin().indices().prepareUpdateSettings(index)
+                .setSettings(Settings.builder().put(BLOCKS_WRITE, true))
+                .get();
+        forceMerge(index);
+        return index;
+    }
+
+    /**
+     * shrink要求源索引只读，并且每个分片都有一个拷贝在同一个节点上
+     * <p>
+     * 上次在创建目标索引之后失败（例如force merge超时、切换别名失败）时，目标索引已经存在，
+     * 源索引仍然只读，这次从等待目标索引可用开始继续。失败时去掉源索引的分配限制，
+     * 创建目标索引之前失败时同时恢复源索引的写入。成功时源索引在切换别名时被删除。
+     */
+    private String shrink(IndexMetaData index, ClusterState state) {
+        String source = index.getIndex().getName();
+        String target = source + SHRUNK_SUFFIX;
+        IndicesAdminClient indices = client.admin().indices();
+        boolean created = indices.prepareExists(target).get().isExists();
+        try {
+            if (created) {
+                System.out.println("索引[" + target + "]已经存在，继续上次未完成的shrink");
+            } else {
+                createShrunk(index, state, target);
+                created = true;
+            }
+            ClusterHealthResponse health = client.admin().cluster().prepareHealth(target)
+                    .setWaitForYellowStatus()
+                    .setTimeout(timeout)
+                    .get();
+            if (health.isTimedOut()) {
+                throw new IllegalStateException("等待shrink后的索引[" + target + "]可用超时");
+            }
+            forceMerge(target);
+            // 在同一个请求中替换并删除源索引，查询不会同时看到两份文章
+            indices.prepareAliases()
+                    .addAliasAction(AliasActions.add().index(target).alias(readAlias))
+                    .addAliasAction(AliasActions.removeIndex().index(source))
+                    .get();
+            System.out.println("索引[" + source + "]已shrink为[" + target + "]");
+            return target;
+        } catch (RuntimeException e) {
+            Settings.Builder restore = Settings.builder().putNull(REQUIRE_NAME);
+            if (!created) {
+                restore.putNull(BLOCKS_WRITE);
+            }
+            try {
+                indices.prepareUpdateSettings(source).setSettings(restore).get();
+            } catch (RuntimeException restoreFailure) {
+                e.addSuppressed(restoreFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 把源索引的分片集中到一个节点上，再创建1个分片的目标索引
+     */
+    private void createShrunk(IndexMetaData index, ClusterState state, String target) {
+        String source = index.getIndex().getName();
+        String node = shrinkNode(source, state);
+        IndicesAdminClient indices = client.admin().indices();
+        indices.prepareUpdateSettings(source)
+                .setSettings(Settings.builder()
+                        .put(BLOCKS_WRITE, true)
+                        .put(REQUIRE_NAME, node))
+                .get();
+        // 副本不能和主分片在同一个节点上，会变成未分配，所以只等待yellow
+        ClusterHealthResponse health = client.admin().cluster().prepareHealth(source)
+                .setWaitForEvents(Priority.LANGUID)
+                .setWaitForNoRelocatingShards(true)
+                .setWaitForYellowStatus()
+                .setTimeout(timeout)
+                .get();
+        if (health.isTimedOut()) {
+            throw new IllegalStateException("等待索引[" + source + "]的分片移动到节点[" + node + "]超时");
+        }
+        // 新索引不继承源索引的只读和分配限制，这里重新设为只读
+        indices.prepareShrinkIndex(source, target)
+                .setSettings(Settings.builder()
+                        .put(settings)
+                        .put("index.number_of_shards", 1)
+                        .put("index.number_of_replicas", index.getNumberOfReplicas())
+                        .put(BLOCKS_WRITE, true)
+                        .build())
+                .get();
+    }
+
+    /**
+     * 已经有最多分片拷贝的节点，移动的分片最少
+     */
+    private static String shrinkNode(String index, ClusterState state) {
+        Map<String, Set<Integer>> shardsByNode = new HashMap<>();
+        for (IndexShardRoutingTable shard : state.routingTable().index(index)) {
+            for (ShardRouting copy : shard) {
+                if (copy.started()) {
+                    shardsByNode.computeIfAbsent(copy.currentNodeId(), id -> new HashSet<>()).add(copy.id());
+                }
+            }
+        }
+        String best = null;
+        for (Map.Entry<String, Set<Integer>> entry : shardsByNode.entrySet()) {
+            if (best == null || entry.getValue().size() > shardsByNode.get(best).size()) {
+                best = entry.getKey();
+            }
+        }
+        if (best == null) {
+            throw new IllegalStateException("索引[" + index + "]没有已启动的分片");
+        }
+        return state.nodes().get(best).getName();
+    }
+
+    private void forceMerge(String index) {
+        ForceMergeResponse response = client.admin().indices().prepareForceMerge(index)
+                .setMaxNumSegments(maxNumSegments)
+                .get();
+        if (response.getFailedShards() > 0) {
+            System.err.println("索引[" + index + "]有" + response.getFailedShards() + "个分片force merge失败");
+        }
+    }
+
+    /**
+     * 先rollover，再处理旧索引
+     */
+    public void maintain() {
+        rollover();
+        optimize();
+    }
+
+    /**
+     * 每隔interval在后台执行一次{@link #maintain()}，失败时打印错误，下次照常执行
+     */
+    public synchronized void start(TimeValue interval) {
+        if (scheduler != null) {
+            throw new IllegalStateException("已经启动");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rollover-" + readAlias);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                maintain();
+            } catch (Exception e) {
+                System.err.println("索引[" + readAlias + "]滚动失败：" + e);
+            }
+        }, interval.millis(), interval.millis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 这些文章所在的后备索引，id -> 索引名
+     * <p>
+     * 通过读别名查询，只能找到已经refresh的文章；找不到的文章要么不存在，要么刚写入热索引，都应该写到写别名。
+     *
+     * @param routing 文章的routing，为空或者包含null时查询所有分片
+     */
+    public Map<String, String> locate(Collection<String> ids, String... routing) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        SearchRequestBuilder request = client.prepareSearch(readAlias)
+                .setTypes(type)
+                .setQuery(QueryBuilders.idsQuery(type).addIds(ids.toArray(new String[0])))
+                .setFetchSource(false)
+                .setSize(ids.size());
+        // 没有routing的文章按id分布在所有分片上，有一篇没有routing就只能查询所有分片
+        if (routing.length > 0 && !Arrays.asList(routing).contains(null)) {
+            request.setRouting(routing);
+        }
+        Map<String, String> indices = new HashMap<>();
+        for (SearchHit hit : request.get().getHits()) {
+            indices.put(hit.getId(), hit.getIndex());
+        }
+        return indices;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public static class Builder {
+        private final Client client;
+        private final String alias;
+        private final String type;
+        private Settings settings = Settings.EMPTY;
+        private String mapping;
+        private long maxDocs;
+        private ByteSizeValue maxSize;
+        private TimeValue maxAge;
+        private int maxNumSegments = 1;
+        private TimeValue timeout = TimeValue.timeValueMinutes(5);
+
+        private Builder(Client client, String alias, String type) {
+            this.client = client;
+            this.alias = alias;
+            this.type = type;
+        }
+
+        /**
+         * 每个后备索引的设置，例如IndexAdmin.settingsOf(Article.class)
+         */
+        public Builder settings(Settings settings) {
+            this.settings = settings;
+            return this;
+        }
+
+        /**
+         * 每个后备索引的mapping（JSON），null表示使用动态mapping
+         */
+        public Builder mapping(String mapping) {
+            this.mapping = mapping;
+            return this;
+        }
+
+        /**
+         * 热索引的文档数达到后rollover，只统计已经refresh的文档，<=0表示不限制
+         */
+        public Builder maxDocs(long maxDocs) {
+            this.maxDocs = maxDocs;
+            return this;
+        }
+
+        /**
+         * 热索引所有主分片的大小达到后rollover，null表示不限制
+         */
+        public Builder maxSize(ByteSizeValue maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * 热索引创建后经过这么长时间rollover，null表示不限制
+         */
+        public Builder maxAge(TimeValue maxAge) {
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * 旧索引force merge到的段数
+         */
+        public Builder maxNumSegments(int maxNumSegments) {
+            if (maxNumSegments < 1) {
+                throw new IllegalArgumentException("maxNumSegments必须大于0：" + maxNumSegments);
+            }
+            this.maxNumSegments = maxNumSegments;
+            return this;
+        }
+
+        /**
+         * shrink前等待分片移动、shrink后等待新索引可用的最长时间
+         */
+        public Builder timeout(TimeValue timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public RolloverManager build() {
+            if (maxDocs <= 0 && maxSize == null && maxAge == null) {
+                throw new IllegalArgumentException("maxDocs、maxSize、maxAge至少要设置一个");
+            }
+            return new RolloverManager(this);
+        }
+    }
+}
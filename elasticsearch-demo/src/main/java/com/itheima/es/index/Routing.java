@@ -0,0 +1,20 @@
+package com.itheima.es.index;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记实体中作为路由键的字段，由{@link EntityRouting#routingOf}读取
+ * <p>
+ * 索引和bulk写入时用这个字段的值作为routing，相同值的文档落在同一个分片上；
+ * 按这个字段过滤的查询带上相同的routing后只需要查询一个分片，而不是所有分片。
+ * 字段为null时不设置routing，按_id分配分片。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Routing {
+}
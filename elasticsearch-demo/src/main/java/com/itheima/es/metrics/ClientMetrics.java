@@ -0,0 +1,105 @@
+package com.itheima.es.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 客户端请求的延迟和吞吐量统计，按操作和索引分别记录
+ * <p>
+ * 由{@link MetricsPlugin}在传输层记录，所有通过共享client发出的请求（包括ElasticsearchTemplate的请求）都会被统计。
+ * 可以调用{@link #snapshot()}拉取，也可以通过JMX查看。
+ */
+public final class ClientMetrics implements ClientMetricsMXBean {
+
+    private static final ClientMetrics GLOBAL = new ClientMetrics();
+    private static final String OBJECT_NAME = "com.itheima.es:type=ClientMetrics";
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    // 统计请求和响应的字节数需要再序列化一次，bulk和大的搜索响应上开销明显，默认关闭
+    private volatile boolean countBytes;
+
+    private ClientMetrics() {
+    }
+
+    public static ClientMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 注册到平台MBeanServer，重复调用只注册一次
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(GLOBAL, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("注册" + OBJECT_NAME + "失败", e);
+        }
+    }
+
+    OperationMetrics get(String operation, String index) {
+        return operations.computeIfAbsent(operation + '|' + index, key -> new OperationMetrics(operation, index));
+    }
+
+    public boolean isCountBytes() {
+        return countBytes;
+    }
+
+    public void setCountBytes(boolean countBytes) {
+        this.countBytes = countBytes;
+    }
+
+    /**
+     * 所有操作的统计，按操作名和索引排序
+     */
+    public List<OperationStats> snapshot() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (OperationMetrics metrics : operations.values()) {
+            stats.add(metrics.snapshot());
+        }
+        stats.sort(Comparator.comparing(OperationStats::getOperation).thenComparing(OperationStats::getIndex));
+        return stats;
+    }
+
+    /**
+     * 某个操作在某个索引上的统计，没有记录时返回null
+     */
+    public OperationStats snapshot(String operation, String index) {
+        OperationMetrics metrics = operations.get(operation + '|' + index);
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        return snapshot();
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder(String.format(
+                "%-22s %-12s %8s %6s %6s %6s %10s %12s %9s %9s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "index", "count", "errors", "reject", "items", "sent", "received",
+                "ops/s", "p50(ms)", "p99", "p999", "max", "took p50", "took p99", "took p999"));
+        for (OperationStats stats : snapshot()) {
+            report.append(stats).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (OperationMetrics metrics : operations.values()) {
+            metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.itheima.es.metrics;
+
+import java.util.List;
+
+/**
+ * 通过JMX查看客户端统计，ObjectName为com.itheima.es:type=ClientMetrics
+ */
+public interface ClientMetricsMXBean {
+
+    /**
+     * 每种操作、每个索引一条统计
+     */
+    List<OperationStats> getOperations();
+
+    /**
+     * 表格形式的统计，方便在jconsole中直接查看
+     */
+    String getReport();
+
+    /**
+     * 清空所有统计
+     */
+    void reset();
+}
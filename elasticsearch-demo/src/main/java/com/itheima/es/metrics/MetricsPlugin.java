@@ -0,0 +1,210 @@
+package com.itheima.es.metrics;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.IndicesRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.plugins.NetworkPlugin;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.transport.Transport;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportInterceptor;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportResponseHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 在传输层统计每个请求的TransportClient插件
+ * <p>
+ * 创建client时传入：new PreBuiltTransportClient(settings, MetricsPlugin.class)。
+ * 请求发出时开始计时，响应反序列化完成、交给调用方之前结束计时，结果记录到{@link ClientMetrics#global()}。
+ */
+public class MetricsPlugin extends Plugin implements NetworkPlugin {
+
+    // client定期ping节点的请求和连接握手，不计入统计
+    private static final String LIVENESS_ACTION = "cluster:monitor/nodes/liveness";
+    private static final String INTERNAL_ACTION_PREFIX = "internal:";
+
+    @Override
+    public List<TransportInterceptor> getTransportInterceptors(ThreadContext threadContext) {
+        return Collections.singletonList(new TransportInterceptor() {
+            @Override
+            public AsyncSender interceptSender(AsyncSender sender) {
+                return new MetricsSender(sender);
+            }
+        });
+    }
+
+    private static class MetricsSender implements TransportInterceptor.AsyncSender {
+
+        private final TransportInterceptor.AsyncSender sender;
+
+        MetricsSender(TransportInterceptor.AsyncSender sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public <T extends TransportResponse> void sendRequest(Transport.Connection connection, String action,
+                                                              TransportRequest request, TransportRequestOptions options,
+                                                              TransportResponseHandler<T> handler) {
+            if (action.startsWith(LIVENESS_ACTION) || action.startsWith(INTERNAL_ACTION_PREFIX)) {
+                sender.sendRequest(connection, action, request, options, handler);
+                return;
+            }
+            ClientMetrics metrics = ClientMetrics.global();
+            OperationMetrics operation = metrics.get(operationName(action), indexOf(request));
+            boolean countBytes = metrics.isCountBytes();
+            if (countBytes) {
+                operation.recordBytesSent(sizeOf(request));
+            }
+            long start = System.nanoTime();
+            sender.sendRequest(connection, action, request, options, new TransportResponseHandler<T>() {
+                @Override
+                public T newInstance() {
+                    return handler.newInstance();
+                }
+
+                @Override
+                public void handleResponse(T response) {
+                    operation.recordSuccess(System.nanoTime() - start);
+                    if (countBytes) {
+                        operation.recordBytesReceived(sizeOf(response));
+                    }
+                    recordResponse(operation, response);
+                    handler.handleResponse(response);
+                }
+
+                @Override
+                public void handleException(TransportException exp) {
+                    operation.recordFailure(isRejected(exp));
+                    handler.handleException(exp);
+                }
+
+                @Override
+                public String executor() {
+                    return handler.executor();
+                }
+            });
+        }
+    }
+
+    private static void recordResponse(OperationMetrics operation, TransportResponse response) {
+        if (response instanceof SearchResponse) {
+            operation.recordTook(((SearchResponse) response).getTookInMillis());
+        } else if (response instanceof BulkResponse) {
+            BulkResponse bulk = (BulkResponse) response;
+            operation.recordTook(bulk.getTook().millis());
+            if (bulk.hasFailures()) {
+                for (BulkItemResponse item : bulk) {
+                    if (item.isFailed()) {
+                        operation.recordBulkItemFailure(item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRejected(Throwable failure) {
+        return ExceptionsHelper.unwrapCause(failure) instanceof EsRejectedExecutionException
+                || ExceptionsHelper.status(failure) == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * 数据操作去掉前缀，例如indices:data/read/search记为search，其他操作保留完整的action名
+     */
+    static String operationName(String action) {
+        if (action.startsWith("indices:data/read/")) {
+            return action.substring("indices:data/read/".length());
+        }
+        if (action.startsWith("indices:data/write/")) {
+            return action.substring("indices:data/write/".length());
+        }
+        return action;
+    }
+
+    /**
+     * 请求涉及的索引，bulk、mget、msearch取其中所有请求的索引
+     */
+    static String indexOf(TransportRequest request) {
+        Set<String> indices = new TreeSet<>();
+        if (request instanceof IndicesRequest) {
+            String[] names = ((IndicesRequest) request).indices();
+            if (names != null) {
+                Collections.addAll(indices, names);
+            }
+        } else if (request instanceof BulkRequest) {
+            for (DocWriteRequest<?> item : ((BulkRequest) request).requests()) {
+                indices.add(item.index());
+            }
+        } else if (request instanceof MultiGetRequest) {
+            for (MultiGetRequest.Item item : ((MultiGetRequest) request).getItems()) {
+                indices.add(item.index());
+            }
+        } else if (request instanceof MultiSearchRequest) {
+            for (SearchRequest item : ((MultiSearchRequest) request).requests()) {
+                Collections.addAll(indices, item.indices());
+            }
+        }
+        return indices.isEmpty() ? "-" : String.join(",", indices);
+    }
+
+    private static long sizeOf(Streamable message) {
+        CountingStreamOutput out = new CountingStreamOutput();
+        try {
+            message.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            // 统计失败不影响请求本身
+            return 0;
+        }
+        return out.count;
+    }
+
+    /**
+     * 只计数不保存的输出流，用来得到请求和响应序列化后的字节数
+     */
+    private static class CountingStreamOutput extends StreamOutput {
+
+        private long count;
+
+        @Override
+        public void writeByte(byte b) {
+            count++;
+        }
+
+        @Override
+        public void writeBytes(byte[] b, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.itheima.es.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一种操作在一个索引上的统计
+ * <p>
+ * 延迟记录在HdrHistogram的Recorder中，记录时无锁，读取时把区间直方图累加到总直方图上。
+ * 直方图单位为微秒，精度2位有效数字，超过10分钟的值按10分钟记录。
+ */
+final class OperationMetrics {
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final String operation;
+    private final String index;
+    // 客户端发出请求到收到响应的往返时间
+    private final Recorder latency = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    // 服务端返回的took，只有search、bulk等响应中有
+    private final Recorder took = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram latencyTotal = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram tookTotal = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private Histogram latencyInterval;
+    private Histogram tookInterval;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder bulkItemFailures = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private volatile long sinceNanos = System.nanoTime();
+
+    OperationMetrics(String operation, String index) {
+        this.operation = operation;
+        this.index = index;
+    }
+
+    void recordSuccess(long latencyNanos) {
+        count.increment();
+        latency.recordValue(clamp(TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+    }
+
+    void recordFailure(boolean rejected) {
+        count.increment();
+        errors.increment();
+        if (rejected) {
+            rejections.increment();
+        }
+    }
+
+    void recordTook(long tookMillis) {
+        took.recordValue(clamp(TimeUnit.MILLISECONDS.toMicros(tookMillis)));
+    }
+
+    void recordBulkItemFailure(boolean rejected) {
+        bulkItemFailures.increment();
+        if (rejected) {
+            rejections.increment();
+        }
+    }
+
+    void recordBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    void recordBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    private static long clamp(long micros) {
+        return Math.max(0, Math.min(micros, HIGHEST_MICROS));
+    }
+
+    /**
+     * 从上次reset到现在的统计
+     */
+    synchronized OperationStats snapshot() {
+        latencyInterval = latency.getIntervalHistogram(latencyInterval);
+        latencyTotal.add(latencyInterval);
+        tookInterval = took.getIntervalHistogram(tookInterval);
+        tookTotal.add(tookInterval);
+        double seconds = (System.nanoTime() - sinceNanos) / 1e9;
+        long total = count.sum();
+        return new OperationStats(operation, index, total, errors.sum(), rejections.sum(), bulkItemFailures.sum(),
+                bytesSent.sum(), bytesReceived.sum(), seconds <= 0 ? 0 : total / seconds,
+                millis(latencyTotal, 50), millis(latencyTotal, 99), millis(latencyTotal, 99.9),
+                latencyTotal.getTotalCount() == 0 ? 0 : latencyTotal.getMaxValue() / 1000.0,
+                millis(tookTotal, 50), millis(tookTotal, 99), millis(tookTotal, 99.9));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * 清空统计，例如每次发布后重新开始观察
+     */
+    synchronized void reset() {
+        latencyInterval = latency.getIntervalHistogram(latencyInterval);
+        tookInterval = took.getIntervalHistogram(tookInterval);
+        latencyTotal.reset();
+        tookTotal.reset();
+        count.reset();
+        errors.reset();
+        rejections.reset();
+        bulkItemFailures.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+        sinceNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,134 @@
+package com.itheima.es.metrics;
+
+/**
+ * 一种操作在一个索引上的统计快照，时间单位都是毫秒
+ * <p>
+ * 只有getter，可以直接作为JMX属性的值。
+ */
+public class OperationStats {
+
+    private final String operation;
+    private final String index;
+    private final long count;
+    private final long errors;
+    private final long rejections;
+    private final long bulkItemFailures;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final double ratePerSecond;
+    private final double latencyP50;
+    private final double latencyP99;
+    private final double latencyP999;
+    private final double latencyMax;
+    private final double tookP50;
+    private final double tookP99;
+    private final double tookP999;
+
+    OperationStats(String operation, String index, long count, long errors, long rejections, long bulkItemFailures,
+                   long bytesSent, long bytesReceived, double ratePerSecond,
+                   double latencyP50, double latencyP99, double latencyP999, double latencyMax,
+                   double tookP50, double tookP99, double tookP999) {
+        this.operation = operation;
+        this.index = index;
+        this.count = count;
+        this.errors = errors;
+        this.rejections = rejections;
+        this.bulkItemFailures = bulkItemFailures;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.ratePerSecond = ratePerSecond;
+        this.latencyP50 = latencyP50;
+        this.latencyP99 = latencyP99;
+        this.latencyP999 = latencyP999;
+        this.latencyMax = latencyMax;
+        this.tookP50 = tookP50;
+        this.tookP99 = tookP99;
+        this.tookP999 = tookP999;
+    }
+
+    /**
+     * 操作名，例如search、bulk、get，非数据操作为完整的action名
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * 请求涉及的索引，多个索引用逗号分隔，没有索引（例如scroll）为"-"
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * 整个请求或者bulk中的条目被线程池拒绝（429）的次数
+     */
+    public long getRejections() {
+        return rejections;
+    }
+
+    public long getBulkItemFailures() {
+        return bulkItemFailures;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * 客户端往返时间的p50，包括网络传输和响应的反序列化
+     */
+    public double getLatencyP50() {
+        return latencyP50;
+    }
+
+    public double getLatencyP99() {
+        return latencyP99;
+    }
+
+    public double getLatencyP999() {
+        return latencyP999;
+    }
+
+    public double getLatencyMax() {
+        return latencyMax;
+    }
+
+    /**
+     * 服务端返回的took的p50，和往返时间的差就是网络和排队的开销
+     */
+    public double getTookP50() {
+        return tookP50;
+    }
+
+    public double getTookP99() {
+        return tookP99;
+    }
+
+    public double getTookP999() {
+        return tookP999;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-22s %-12s %8d %6d %6d %6d %10d %12d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                operation, index, count, errors, rejections, bulkItemFailures, bytesSent, bytesReceived,
+                ratePerSecond, latencyP50, latencyP99, latencyP999, latencyMax, tookP50, tookP99, tookP999);
+    }
+}
@@ -0,0 +1,485 @@
+package com.itheima.es.reindex;
+
+import com.itheima.es.Article;
+import com.itheima.es.bulk.ArticleBulkLoader;
+import com.itheima.es.search.ArticleHitMapper;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 把一个索引的文章复制到另一个索引，例如blog2到blog3，用于修改mapping后迁移数据
+ * <p>
+ * 源索引用N个sliced scroll并行读取，每个slice通过自己的{@link ArticleBulkLoader}并发写入目标索引。
+ * 设置了checkpoint文件时，每个slice全部写入成功后记录到文件中，中途失败后用同样的参数重新运行会跳过已完成的slice。
+ */
+public class ArticleReindexer {
+
+    private final Client client;
+    private final String sourceIndex;
+    private final String sourceType;
+    private final String targetIndex;
+    private final String targetType;
+    private final int slices;
+    private final int scrollSize;
+    private final TimeValue keepAlive;
+    private final int bulkActions;
+    private final int concurrentRequests;
+    private final Function<Article, Article> transform;
+    private final double maxDocsPerSecond;
+    private final TimeValue progressInterval;
+    private final Path checkpoint;
+
+    private ArticleReindexer(Builder builder) {
+        this.client = builder.client;
+        this.sourceIndex = builder.sourceIndex;
+        this.sourceType = builder.sourceType;
+        this.targetIndex = builder.targetIndex;
+        this.targetType = builder.targetType;
+        this.slices = builder.slices;
+        this.scrollSize = builder.scrollSize;
+        this.keepAlive = builder.keepAlive;
+        this.bulkActions = builder.bulkActions;
+        this.concurrentRequests = builder.concurrentRequests;
+        this.transform = builder.transform;
+        this.maxDocsPerSecond = builder.maxDocsPerSecond;
+        this.progressInterval = builder.progressInterval;
+        this.checkpoint = builder.checkpoint;
+    }
+
+    public static Builder builder(Client client, String sourceIndex, String sourceType,
+                                  String targetIndex, String targetType) {
+        return new Builder(client, sourceIndex, sourceType, targetIndex, targetType);
+    }
+
+    /**
+     * 执行复制，所有slice都结束后返回；有slice抛出异常时，其他slice照常完成后再抛出
+     */
+    public ReindexResult run() throws Exception {
+        Set<Integer> finished = readCheckpoint();
+        ReindexResult result = new ReindexResult(slices, finished.size());
+        Throttle throttle = maxDocsPerSecond > 0 ? new Throttle(maxDocsPerSecond) : null;
+
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(slices, runnable -> {
+            Thread thread = new Thread(runnable, "reindex-" + targetIndex + "-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reindex-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(result.progress()),
+                progressInterval.millis(), progressInterval.millis(), TimeUnit.MILLISECONDS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int slice = 0; slice < slices; slice++) {
+                if (finished.contains(slice)) {
+                    continue;
+                }
+                int id = slice;
+                futures.add(workers.submit(() -> {
+                    runSlice(id, result, throttle);
+                    return null;
+                }));
+            }
+            Exception failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            result.elapsedNanos = System.nanoTime() - result.startNanos;
+            System.out.println(result);
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        } finally {
+            reporter.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    private void runSlice(int slice, ReindexResult result, Throttle throttle) throws Exception {
+        ArticleBulkLoader loader = ArticleBulkLoader.builder(client, targetIndex, targetType)
+                .bulkActions(bulkActions)
+                .concurrentRequests(concurrentRequests)
+                .build();
+        ArticleBulkLoader.LoadResult loaded;
+        try (SliceIterator articles = new SliceIterator(slice, result, throttle)) {
+            loaded = loader.load(articles);
+        }
+        result.written.addAndGet(loaded.getSucceeded());
+        result.failed.addAndGet(loaded.getFailed());
+        if (loaded.getFailed() > 0) {
+            // 有文档写入失败的slice不记录，下次运行时整个slice重新复制
+            System.err.println("slice[" + slice + "]有" + loaded.getFailed() + "条文档写入失败，未记录到checkpoint");
+            return;
+        }
+        writeCheckpoint(slice);
+        result.slicesDone.incrementAndGet();
+    }
+
+    private Set<Integer> readCheckpoint() throws IOException {
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return Collections.emptySet();
+        }
+        List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        // 第一行记录slice数，数量不同时slice的划分也不同，不能续传
+        if (lines.isEmpty() || !lines.get(0).equals(header())) {
+            throw new IllegalStateException("checkpoint文件" + checkpoint + "不是由" + header() + "生成的，请删除后重新运行");
+        }
+        Set<Integer> finished = new HashSet<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (!line.trim().isEmpty()) {
+                finished.add(Integer.parseInt(line.trim()));
+            }
+        }
+        System.out.println("从checkpoint续传，跳过已完成的slice：" + finished);
+        return finished;
+    }
+
+    private synchronized void writeCheckpoint(int slice) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            if (!Files.exists(checkpoint)) {
+                Files.write(checkpoint, Collections.singletonList(header()), StandardCharsets.UTF_8);
+            }
+            Files.write(checkpoint, Collections.singletonList(String.valueOf(slice)), StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String header() {
+        return sourceIndex + "->" + targetIndex + " slices=" + slices;
+    }
+
+    /**
+     * 按页读取一个slice的scroll迭代器，一次只保存一页的文档，关闭时清除scroll上下文
+     */
+    private class SliceIterator implements Iterator<Article>, AutoCloseable {
+
+        private final ReindexResult result;
+        private final Throttle throttle;
+        private String scrollId;
+        private SearchHit[] hits;
+        private int position;
+        private Article next;
+
+        SliceIterator(int slice, ReindexResult result, Throttle throttle) {
+            this.result = result;
+            this.throttle = throttle;
+            SearchRequestBuilder request = client.prepareSearch(sourceIndex)
+                    .setTypes(sourceType)
+                    .setScroll(keepAlive)
+                    .setSize(scrollSize)
+                    // 按_doc排序，scroll不需要计算评分和排序
+                    .addSort("_doc", SortOrder.ASC);
+            if (slices > 1) {
+                request.slice(new SliceBuilder(slice, slices));
+            }
+            SearchResponse response = request.get();
+            result.total.addAndGet(response.getHits().getTotalHits());
+            accept(response);
+        }
+
+        private void accept(SearchResponse response) {
+            scrollId = response.getScrollId();
+            hits = response.getHits().getHits();
+            position = 0;
+            result.read.addAndGet(hits.length);
+            if (throttle != null) {
+                throttle.acquire(hits.length);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (position == hits.length) {
+                    if (hits.length == 0) {
+                        return false;
+                    }
+                    accept(client.prepareSearchScroll(scrollId).setScroll(keepAlive).get());
+                    continue;
+                }
+                Article article = ArticleHitMapper.toArticle(hits[position++]);
+                next = transform == null ? article : transform.apply(article);
+                if (next == null) {
+                    // transform返回null表示不复制这个文档
+                    result.skipped.incrementAndGet();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Article next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Article article = next;
+            next = null;
+            return article;
+        }
+
+        @Override
+        public void close() {
+            if (scrollId != null) {
+                client.prepareClearScroll().addScrollId(scrollId).get();
+                scrollId = null;
+            }
+        }
+    }
+
+    /**
+     * 所有slice共享的限速，按文档数预约时间片，超过速度时读取线程等待
+     */
+    private static class Throttle {
+
+        private final long nanosPerDoc;
+        private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+        Throttle(double docsPerSecond) {
+            this.nanosPerDoc = (long) (TimeUnit.SECONDS.toNanos(1) / docsPerSecond);
+        }
+
+        void acquire(int docs) {
+            long cost = nanosPerDoc * docs;
+            long previous;
+            long start;
+            long now;
+            do {
+                now = System.nanoTime();
+                previous = nextFree.get();
+                start = Math.max(previous, now);
+            } while (!nextFree.compareAndSet(previous, start + cost));
+            long wait = start - now;
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Client client;
+        private final String sourceIndex;
+        private final String sourceType;
+        private final String targetIndex;
+        private final String targetType;
+        private int slices = 4;
+        private int scrollSize = 500;
+        private TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+        private int bulkActions = 1000;
+        private int concurrentRequests = 1;
+        private Function<Article, Article> transform;
+        private double maxDocsPerSecond;
+        private TimeValue progressInterval = TimeValue.timeValueSeconds(10);
+        private Path checkpoint;
+
+        private Builder(Client client, String sourceIndex, String sourceType, String targetIndex, String targetType) {
+            this.client = client;
+            this.sourceIndex = sourceIndex;
+            this.sourceType = sourceType;
+            this.targetIndex = targetIndex;
+            this.targetType = targetType;
+        }
+
+        /**
+         * 并行读取的slice数，一般等于源索引的分片数
+         */
+        public Builder slices(int slices) {
+            if (slices < 1) {
+                throw new IllegalArgumentException("slices必须大于0：" + slices);
+            }
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * 每个slice每次scroll读取的文档数
+         */
+        public Builder scrollSize(int scrollSize) {
+            this.scrollSize = scrollSize;
+            return this;
+        }
+
+        public Builder keepAlive(TimeValue keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder bulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        /**
+         * 每个slice同时在途的bulk请求数
+         */
+        public Builder concurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        /**
+         * 写入前对每个文档做转换，返回null表示跳过该文档
+         */
+        public Builder transform(Function<Article, Article> transform) {
+            this.transform = transform;
+            return this;
+        }
+
+        /**
+         * 所有slice合计每秒最多读取的文档数，<=0表示不限速
+         */
+        public Builder maxDocsPerSecond(double maxDocsPerSecond) {
+            this.maxDocsPerSecond = maxDocsPerSecond;
+            return this;
+        }
+
+        /**
+         * 打印进度的间隔，必须大于0
+         */
+        public Builder progressInterval(TimeValue progressInterval) {
+            if (progressInterval.millis() <= 0) {
+                throw new IllegalArgumentException("progressInterval必须大于0：" + progressInterval);
+            }
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        /**
+         * 记录已完成slice的文件，null表示不支持续传
+         */
+        public Builder checkpoint(Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public ArticleReindexer build() {
+            return new ArticleReindexer(this);
+        }
+    }
+
+    /**
+     * 复制的进度和结果，运行中也可以读取
+     */
+    public static class ReindexResult {
+        private final int slices;
+        private final int slicesSkipped;
+        private final AtomicInteger slicesDone = new AtomicInteger();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+        private volatile long elapsedNanos;
+
+        ReindexResult(int slices, int slicesSkipped) {
+            this.slices = slices;
+            this.slicesSkipped = slicesSkipped;
+        }
+
+        public int getSlicesDone() {
+            return slicesDone.get();
+        }
+
+        public int getSlicesSkipped() {
+            return slicesSkipped;
+        }
+
+        /**
+         * 本次运行的slice中源文档总数，已跳过的slice不计入
+         */
+        public long getTotal() {
+            return total.get();
+        }
+
+        public long getRead() {
+            return read.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getWritten() {
+            return written.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getElapsedMillis() {
+            long nanos = elapsedNanos == 0 ? System.nanoTime() - startNanos : elapsedNanos;
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        public double getDocsPerSecond() {
+            long millis = getElapsedMillis();
+            return millis == 0 ? 0 : read.get() * 1000.0 / millis;
+        }
+
+        String progress() {
+            long total = this.total.get();
+            return String.format("已读取%d/%d条（%.1f%%），slice完成%d/%d，%.1f docs/sec",
+                    read.get(), total, total == 0 ? 0 : read.get() * 100.0 / total,
+                    slicesDone.get() + slicesSkipped, slices, getDocsPerSecond());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("读取%d条，跳过%d条，写入成功%d条，失败%d条，slice完成%d/%d（续传跳过%d），耗时%dms，%.1f docs/sec",
+                    getRead(), getSkipped(), getWritten(), getFailed(), slicesDone.get() + slicesSkipped, slices,
+                    slicesSkipped, getElapsedMillis(), getDocsPerSecond());
+        }
+    }
+}
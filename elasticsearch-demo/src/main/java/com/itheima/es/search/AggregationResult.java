@@ -0,0 +1,196 @@
+package com.itheima.es.search;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregation;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 聚合查询的结果，按聚合名称取出桶、单值指标或统计值
+ * <p>
+ * 只保存键、文档数和数值，不持有ES的响应对象，可以放进缓存或者直接序列化给前端。
+ */
+public class AggregationResult {
+
+    private final long totalHits;
+    private final long tookInMillis;
+    // terms、histogram等分桶聚合
+    private final Map<String, List<Bucket>> buckets = new HashMap<>();
+    // cardinality、avg、sum等单值指标
+    private final Map<String, Double> values = new HashMap<>();
+    private final Map<String, FieldStats> stats = new HashMap<>();
+
+    private AggregationResult(long totalHits, long tookInMillis) {
+        this.totalHits = totalHits;
+        this.tookInMillis = tookInMillis;
+    }
+
+    /**
+     * 从搜索响应中读取所有顶层聚合，不支持的聚合类型被忽略
+     */
+    public static AggregationResult of(SearchResponse response) {
+        AggregationResult result = new AggregationResult(response.getHits().getTotalHits(), response.getTookInMillis());
+        Aggregations aggregations = response.getAggregations();
+        if (aggregations == null) {
+            return result;
+        }
+        for (Aggregation aggregation : aggregations) {
+            if (aggregation instanceof MultiBucketsAggregation) {
+                List<Bucket> list = new ArrayList<>();
+                for (MultiBucketsAggregation.Bucket bucket : ((MultiBucketsAggregation) aggregation).getBuckets()) {
+                    list.add(new Bucket(bucket.getKey(), bucket.getKeyAsString(), bucket.getDocCount()));
+                }
+                result.buckets.put(aggregation.getName(), Collections.unmodifiableList(list));
+            } else if (aggregation instanceof Stats) {
+                Stats s = (Stats) aggregation;
+                result.stats.put(aggregation.getName(),
+                        new FieldStats(s.getCount(), s.getMin(), s.getMax(), s.getAvg(), s.getSum()));
+            } else if (aggregation instanceof NumericMetricsAggregation.SingleValue) {
+                result.values.put(aggregation.getName(), ((NumericMetricsAggregation.SingleValue) aggregation).value());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 满足查询条件的文档总数
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    public long getTookInMillis() {
+        return tookInMillis;
+    }
+
+    /**
+     * 分桶聚合的结果，没有该聚合时返回空列表
+     */
+    public List<Bucket> getBuckets(String name) {
+        return buckets.getOrDefault(name, Collections.emptyList());
+    }
+
+    /**
+     * 单值指标聚合的结果，没有该聚合时返回NaN
+     */
+    public double getValue(String name) {
+        return values.getOrDefault(name, Double.NaN);
+    }
+
+    /**
+     * cardinality聚合的结果，是近似值
+     */
+    public long getCardinality(String name) {
+        return values.containsKey(name) ? Math.round(values.get(name)) : 0;
+    }
+
+    /**
+     * stats聚合的结果，没有该聚合时返回null
+     */
+    public FieldStats getStats(String name) {
+        return stats.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return "AggregationResult{" +
+                "totalHits=" + totalHits +
+                ", buckets=" + buckets +
+                ", values=" + values +
+                ", stats=" + stats +
+                '}';
+    }
+
+    /**
+     * 一个桶：键和桶中的文档数
+     */
+    public static class Bucket {
+        private final Object key;
+        private final String keyAsString;
+        private final long docCount;
+
+        public Bucket(Object key, String keyAsString, long docCount) {
+            this.key = key;
+            this.keyAsString = keyAsString;
+            this.docCount = docCount;
+        }
+
+        /**
+         * terms聚合为词条，histogram聚合为区间的起点（Double）
+         */
+        public Object getKey() {
+            return key;
+        }
+
+        public String getKeyAsString() {
+            return keyAsString;
+        }
+
+        public long getDocCount() {
+            return docCount;
+        }
+
+        @Override
+        public String toString() {
+            return keyAsString + "=" + docCount;
+        }
+    }
+
+    /**
+     * stats聚合的结果：文档数、最小值、最大值、平均值、总和
+     */
+    public static class FieldStats {
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double avg;
+        private final double sum;
+
+        public FieldStats(long count, double min, double max, double avg, double sum) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.avg = avg;
+            this.sum = sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAvg() {
+            return avg;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        @Override
+        public String toString() {
+            return "FieldStats{" +
+                    "count=" + count +
+                    ", min=" + min +
+                    ", max=" + max +
+                    ", avg=" + avg +
+                    ", sum=" + sum +
+                    '}';
+        }
+    }
+}
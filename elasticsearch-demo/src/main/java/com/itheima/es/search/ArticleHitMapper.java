@@ -0,0 +1,170 @@
+package com.itheima.es.search;
+
+import com.itheima.es.Article;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.SearchHits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 把搜索结果（SearchHit、GetResponse的_source）转换成Article对象
+ * <p>
+ * 直接用流式解析器读取_source的字节，只取id、title、content、category四个字段，其余字段整体跳过，
+ * 不再为每个hit构建HashMap和JSON字符串。
+ */
+public final class ArticleHitMapper {
+
+    private ArticleHitMapper() {
+    }
+
+    public static List<Article> toArticles(SearchHits hits) {
+        List<Article> articles = new ArrayList<>(hits.getHits().length);
+        for (SearchHit hit : hits) {
+            articles.add(toArticle(hit));
+        }
+        return articles;
+    }
+
+    /**
+     * 复用同一个Article对象依次处理每个hit，适合只需要逐条读取、不保存结果的场景。
+     * consumer中不能保存传入的对象，下一个hit会覆盖它的内容。
+     */
+    public static void forEach(SearchHits hits, Consumer<Article> consumer) {
+        Article reused = new Article();
+        for (SearchHit hit : hits) {
+            consumer.accept(toArticle(hit, reused));
+        }
+    }
+
+    public static Article toArticle(SearchHit hit) {
+        return toArticle(hit, new Article());
+    }
+
+    /**
+     * 把hit解码到指定的Article对象中，返回该对象
+     */
+    public static Article toArticle(SearchHit hit, Article article) {
+        if (hit.getSourceRef() == null && !hit.getFields().isEmpty()) {
+            // 使用stored_fields查询时没有_source，从stored fields中读取
+            toArticle(hit.getFields(), article);
+        } else {
+            toArticle(hit.getSourceRef(), article);
+        }
+        // 字段投影中没有包含id时，使用文档的_id
+        if (article.getId() == 0 && hit.getId() != null) {
+            try {
+                article.setId(Long.parseLong(hit.getId()));
+            } catch (NumberFormatException ignore) {
+                // _id不是数字，保持为0
+            }
+        }
+        return article;
+    }
+
+    /**
+     * stored fields中的字段，只会包含查询时指定的那些字段
+     */
+    public static Article toArticle(Map<String, SearchHitField> fields, Article article) {
+        reset(article);
+        SearchHitField id = fields.get("id");
+        if (id != null && id.getValue() instanceof Number) {
+            article.setId(((Number) id.getValue()).longValue());
+        }
+        SearchHitField title = fields.get("title");
+        if (title != null) {
+            article.setTitle(title.getValue());
+        }
+        SearchHitField content = fields.get("content");
+        if (content != null) {
+            article.setContent(content.getValue());
+        }
+        SearchHitField category = fields.get("category");
+        if (category != null) {
+            article.setCategory(category.getValue());
+        }
+        return article;
+    }
+
+    public static Article toArticle(BytesReference source) {
+        return toArticle(source, new Article());
+    }
+
+    public static Article toArticle(BytesReference source, Article article) {
+        reset(article);
+        if (source == null) {
+            return article;
+        }
+        // _source保持写入时的格式，SMILE、CBOR写入的文档读出来也是二进制，按内容判断格式
+        XContentType contentType = XContentFactory.xContentType(source);
+        if (contentType == null) {
+            throw new UncheckedIOException("解析_source失败", new IOException("无法识别_source的格式"));
+        }
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, source, contentType)) {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                throw new IOException("_source不是一个对象");
+            }
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+                String field = parser.currentName();
+                token = parser.nextToken();
+                if (token == XContentParser.Token.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "id":
+                        article.setId(parser.longValue());
+                        break;
+                    case "title":
+                        article.setTitle(parser.text());
+                        break;
+                    case "content":
+                        article.setContent(parser.text());
+                        break;
+                    case "category":
+                        article.setCategory(parser.text());
+                        break;
+                    default:
+                        // 不需要的字段，如果是对象或数组则整体跳过
+                        parser.skipChildren();
+                }
+            }
+            return article;
+        } catch (IOException e) {
+            throw new UncheckedIOException("解析_source失败", e);
+        }
+    }
+
+    /**
+     * 已经解析成Map的_source，例如spring或者其他API返回的结果
+     */
+    public static Article toArticle(Map<String, Object> source) {
+        Article article = new Article();
+        Object id = source.get("id");
+        if (id instanceof Number) {
+            article.setId(((Number) id).longValue());
+        }
+        article.setTitle((String) source.get("title"));
+        article.setContent((String) source.get("content"));
+        article.setCategory((String) source.get("category"));
+        return article;
+    }
+
+    private static void reset(Article article) {
+        article.setId(0);
+        article.setTitle(null);
+        article.setContent(null);
+        article.setCategory(null);
+    }
+}
@@ -0,0 +1,198 @@
+package com.itheima.es.search;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一次文章搜索的全部参数：查询条件、分页、排序、高亮、routing以及返回哪些字段
+ * <p>
+ * 深分页使用search_after而不是from/size：按sort排序，把上一页的{@link SearchResult#getLastSortValues()}
+ * 传给searchAfter，每一页的开销和第一页相同。
+ */
+public class ArticleQuery {
+
+    private final QueryBuilder query;
+    private int from = 0;
+    private int size = 10;
+    private String highlightField;
+    private HighlightOptions highlightOptions = HighlightOptions.defaults();
+    // _source过滤，只返回includes中的字段、不返回excludes中的字段
+    private String[] includes;
+    private String[] excludes;
+    // 不取_source，直接从stored fields读取
+    private String[] storedFields;
+    private final List<FieldSortBuilder> sorts = new ArrayList<>();
+    // 上一页最后一个文档的排序值，不为null时忽略from
+    private Object[] searchAfter;
+    // 只查询这些routing所在的分片
+    private String[] routings;
+
+    private ArticleQuery(QueryBuilder query) {
+        this.query = query;
+    }
+
+    public static ArticleQuery of(QueryBuilder query) {
+        return new ArticleQuery(query);
+    }
+
+    public ArticleQuery from(int from) {
+        this.from = from;
+        return this;
+    }
+
+    public ArticleQuery size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * 对该字段做高亮，null表示不高亮
+     */
+    public ArticleQuery highlight(String highlightField) {
+        this.highlightField = highlightField;
+        return this;
+    }
+
+    /**
+     * 对该字段做高亮，并指定高亮器、片段长度和片段数
+     */
+    public ArticleQuery highlight(String highlightField, HighlightOptions highlightOptions) {
+        this.highlightField = highlightField;
+        this.highlightOptions = highlightOptions;
+        return this;
+    }
+
+    /**
+     * _source中只返回这些字段，例如列表页只需要id和title
+     */
+    public ArticleQuery includes(String... includes) {
+        this.includes = includes;
+        return this;
+    }
+
+    /**
+     * _source中不返回这些字段，例如不返回很长的content
+     */
+    public ArticleQuery excludes(String... excludes) {
+        this.excludes = excludes;
+        return this;
+    }
+
+    /**
+     * 只读取mapping中store=true的这些字段，完全不返回_source
+     */
+    public ArticleQuery storedFields(String... storedFields) {
+        this.storedFields = storedFields;
+        return this;
+    }
+
+    /**
+     * 按该字段排序，可以调用多次；有排序时最后自动加上id作为唯一的排序字段，保证翻页时顺序稳定
+     */
+    public ArticleQuery sort(String field, SortOrder order) {
+        sorts.add(SortBuilders.fieldSort(field).order(order));
+        return this;
+    }
+
+    /**
+     * 从上一页最后一个文档之后开始取，值为上一页的{@link SearchResult#getLastSortValues()}，
+     * 没有调用sort时按id升序
+     */
+    public ArticleQuery searchAfter(Object... sortValues) {
+        this.searchAfter = sortValues;
+        return this;
+    }
+
+    /**
+     * 只查询这些routing对应的分片，例如按分类过滤时传入分类，只查询一个分片而不是所有分片。
+     * routing只决定查询哪些分片，不会过滤文档，query中仍然需要按分类过滤
+     */
+    public ArticleQuery routing(String... routings) {
+        this.routings = routings;
+        return this;
+    }
+
+    public String[] getRoutings() {
+        return routings;
+    }
+
+    public QueryBuilder getQuery() {
+        return query;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getHighlightField() {
+        return highlightField;
+    }
+
+    public HighlightOptions getHighlightOptions() {
+        return highlightOptions;
+    }
+
+    /**
+     * 把分页和字段投影设置到搜索请求上，查询条件和高亮由调用方设置
+     */
+    public SearchRequestBuilder applyTo(SearchRequestBuilder request) {
+        request.setQuery(query)
+                // setSize():每页最多显示的记录数。
+                .setSize(size);
+        for (FieldSortBuilder sort : effectiveSorts()) {
+            request.addSort(sort);
+        }
+        if (searchAfter != null) {
+            request.searchAfter(searchAfter);
+        } else {
+            // setFrom()：从第几条开始检索，默认是0。
+            request.setFrom(from);
+        }
+        if (routings != null && routings.length > 0) {
+            request.setRouting(routings);
+        }
+        if (storedFields != null) {
+            request.setFetchSource(false).storedFields(storedFields);
+        } else if (includes != null || excludes != null) {
+            request.setFetchSource(includes, excludes);
+        }
+        return request;
+    }
+
+    private List<FieldSortBuilder> effectiveSorts() {
+        if (sorts.isEmpty() && searchAfter == null) {
+            return sorts;
+        }
+        List<FieldSortBuilder> effective = new ArrayList<>(sorts);
+        boolean hasId = false;
+        for (FieldSortBuilder sort : sorts) {
+            hasId |= "id".equals(sort.getFieldName());
+        }
+        if (!hasId) {
+            effective.add(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+        }
+        return effective;
+    }
+
+    /**
+     * 缓存使用的key，Strings.toString输出紧凑的JSON，相同的查询得到相同的key
+     */
+    public String cacheKey(String index) {
+        return index + '|' + Strings.toString(query) + '|' + from + '|' + size + '|' + highlightField
+                + '|' + (highlightField == null ? null : highlightOptions)
+                + '|' + Arrays.toString(includes) + '|' + Arrays.toString(excludes) + '|' + Arrays.toString(storedFields)
+                + '|' + effectiveSorts() + '|' + Arrays.toString(searchAfter) + '|' + Arrays.toString(routings);
+    }
+}
@@ -0,0 +1,267 @@
+package com.itheima.es.search;
+
+import com.itheima.es.Article;
+import com.itheima.es.client.ClientHolder;
+import com.itheima.es.client.NodeSelector;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文章搜索，从SearchIndex中的search(...)方法提取出来，可以被其他代码复用
+ * <p>
+ * 设置了{@link QueryResultCache}后，相同的查询直接从缓存返回；
+ * 设置了{@link SearchCoalescer}后，正在执行的相同查询只发送一次请求。
+ */
+public class ArticleSearcher {
+
+    private final Client client;
+    private final String index;
+    private final String type;
+    private QueryResultCache cache;
+    private SearchCoalescer coalescer;
+
+    /**
+     * 使用共享client，搜索blog2/article
+     */
+    public ArticleSearcher() {
+        this(ClientHolder.getClient(), "blog2", "article");
+    }
+
+    public ArticleSearcher(Client client, String index, String type) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+    }
+
+    /**
+     * 设置查询结果缓存，传null表示不使用缓存
+     */
+    public ArticleSearcher setCache(QueryResultCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public QueryResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 设置查询合并，传null表示不合并
+     */
+    public ArticleSearcher setCoalescer(SearchCoalescer coalescer) {
+        this.coalescer = coalescer;
+        return this;
+    }
+
+    public SearchCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * 分页搜索
+     */
+    public SearchResult search(QueryBuilder query, int from, int size) {
+        return search(ArticleQuery.of(query).from(from).size(size));
+    }
+
+    /**
+     * 分页搜索，highlightField不为null时对该字段做高亮
+     */
+    public SearchResult search(QueryBuilder query, int from, int size, String highlightField) {
+        return search(ArticleQuery.of(query).from(from).size(size).highlight(highlightField));
+    }
+
+    /**
+     * 按ArticleQuery中的分页、高亮和字段投影搜索
+     */
+    public SearchResult search(ArticleQuery query) {
+        if (cache == null) {
+            return coalesce(query);
+        }
+        return cache.get(index, query, () -> coalesce(query));
+    }
+
+    private SearchResult coalesce(ArticleQuery query) {
+        if (coalescer == null) {
+            return doSearch(query);
+        }
+        return coalescer.search(index, query, () -> doSearch(query));
+    }
+
+    /**
+     * 只做聚合不返回文档（size=0），一次请求可以包含多个聚合，例如：
+     * <pre>
+     * searcher.aggregate(QueryBuilders.matchAllQuery(),
+     *         AggregationBuilders.terms("titleTerms").field("title").size(10),
+     *         AggregationBuilders.stats("idStats").field("id"));
+     * </pre>
+     * 对text字段做terms聚合需要在mapping中开启fielddata
+     */
+    public AggregationResult aggregate(QueryBuilder query, AggregationBuilder... aggregations) {
+        SearchRequestBuilder request = prepareSearch()
+                .setQuery(query)
+                // 不返回文档，只返回总数和聚合结果
+                .setSize(0);
+        for (AggregationBuilder aggregation : aggregations) {
+            request.addAggregation(aggregation);
+        }
+        return AggregationResult.of(request.get());
+    }
+
+    /**
+     * 某个字段出现次数最多的size个词条及其文档数
+     */
+    public List<AggregationResult.Bucket> terms(QueryBuilder query, String field, int size) {
+        return aggregate(query, AggregationBuilders.terms(field).field(field).size(size)).getBuckets(field);
+    }
+
+    /**
+     * 数值字段按interval分段的文档数，没有文档的区间不返回
+     */
+    public List<AggregationResult.Bucket> histogram(QueryBuilder query, String field, double interval) {
+        return aggregate(query, AggregationBuilders.histogram(field).field(field).interval(interval)).getBuckets(field);
+    }
+
+    /**
+     * 字段不同值的个数，是近似值
+     */
+    public long cardinality(QueryBuilder query, String field) {
+        return aggregate(query, AggregationBuilders.cardinality(field).field(field)).getCardinality(field);
+    }
+
+    /**
+     * 数值字段的文档数、最小值、最大值、平均值和总和
+     */
+    public AggregationResult.FieldStats stats(QueryBuilder query, String field) {
+        return aggregate(query, AggregationBuilders.stats(field).field(field)).getStats(field);
+    }
+
+    /**
+     * 满足条件的文档数，只返回总数不返回文档
+     */
+    public long count(QueryBuilder query) {
+        return prepareSearch().setQuery(query).setSize(0).get().getHits().getTotalHits();
+    }
+
+    /**
+     * 满足条件的文档数，每个分片数到terminateAfter条就停止，结果最多为terminateAfter乘以分片数，
+     * 用于"超过1000条"这类只需要下限的场景
+     */
+    public long count(QueryBuilder query, int terminateAfter) {
+        return prepareSearch()
+                .setQuery(query)
+                .setSize(0)
+                .setTerminateAfter(terminateAfter)
+                .get().getHits().getTotalHits();
+    }
+
+    /**
+     * 是否存在满足条件的文档，每个分片找到一条就停止
+     */
+    public boolean exists(QueryBuilder query) {
+        return count(query, 1) > 0;
+    }
+
+    /**
+     * 搜索框的输入提示，返回以prefix开头的标题，容忍拼写错误
+     */
+    public List<String> suggest(String prefix, int size) {
+        return suggest(prefix, size, true);
+    }
+
+    /**
+     * 搜索框的输入提示，categories不为空时只提示这些分类的文章，并且只查询这些分类所在的分片
+     */
+    public List<String> suggest(String prefix, int size, boolean fuzzy, String... categories) {
+        if (coalescer == null) {
+            return doSuggest(prefix, size, fuzzy, categories);
+        }
+        // 热门前缀在同一时刻会被很多人输入
+        String key = "suggest|" + index + '|' + prefix + '|' + size + '|' + fuzzy + '|' + Arrays.toString(categories);
+        return coalescer.execute(key, () -> doSuggest(prefix, size, fuzzy, categories));
+    }
+
+    private List<String> doSuggest(String prefix, int size, boolean fuzzy, String... categories) {
+        SearchRequestBuilder request = prepareSearch()
+                // 只需要提示的文本，不返回文档和_source
+                .setSize(0)
+                .setFetchSource(false)
+                .suggest(TitleSuggest.build(prefix, size, fuzzy, categories));
+        if (categories != null && categories.length > 0) {
+            // 分类同时是routing
+            request.setRouting(categories);
+        }
+        return TitleSuggest.titles(request.get());
+    }
+
+    /**
+     * 有节点被摘除时设置preference，让分片副本优先在正常的节点上执行
+     */
+    private SearchRequestBuilder prepareSearch() {
+        SearchRequestBuilder request = client.prepareSearch(index).setTypes(type);
+        String preference = NodeSelector.global().preference();
+        if (preference != null) {
+            request.setPreference(preference);
+        }
+        return request;
+    }
+
+    private SearchResult doSearch(ArticleQuery query) {
+        SearchRequestBuilder request = query.applyTo(prepareSearch());
+        if (query.getHighlightField() != null) {
+            // 高亮显示的字段，按mapping使用fvh或unified高亮器
+            request.highlighter(query.getHighlightOptions().toBuilder(query.getHighlightField()));
+        }
+        return toResult(request.get());
+    }
+
+    /**
+     * 把搜索响应转换成SearchResult，包括文档和高亮片段
+     */
+    public static SearchResult toResult(SearchResponse response) {
+        List<Article> articles = new ArrayList<>(response.getHits().getHits().length);
+        Map<String, Map<String, List<String>>> highlights = new HashMap<>();
+        for (SearchHit hit : response.getHits()) {
+            articles.add(ArticleHitMapper.toArticle(hit));
+            Map<String, HighlightField> highlightFields = hit.getHighlightFields();
+            if (highlightFields == null || highlightFields.isEmpty()) {
+                continue;
+            }
+            Map<String, List<String>> fields = new HashMap<>();
+            for (HighlightField field : highlightFields.values()) {
+                List<String> fragments = new ArrayList<>();
+                if (field.getFragments() != null) {
+                    for (Text fragment : field.getFragments()) {
+                        fragments.add(fragment.string());
+                    }
+                }
+                fields.put(field.getName(), fragments);
+            }
+            highlights.put(hit.getId(), fields);
+        }
+        SearchHit[] hits = response.getHits().getHits();
+        Object[] lastSortValues = hits.length == 0 ? null : hits[hits.length - 1].getSortValues();
+        if (lastSortValues != null && lastSortValues.length == 0) {
+            lastSortValues = null;
+        }
+        return new SearchResult(response.getHits().getTotalHits(), response.getTookInMillis(), articles, highlights,
+                lastSortValues);
+    }
+}
@@ -0,0 +1,133 @@
+package com.itheima.es.search;
+
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 高亮参数：使用哪种高亮器、片段长度、片段数以及没有命中时返回的长度
+ * <p>
+ * 默认的plain高亮器对每个hit都要用ik_smart把整个字段重新分词，文章越长越慢。
+ * 字段在mapping中保存了词的位置和偏移量时可以改用更快的高亮器，开销只和命中的词数有关，不再随文档长度增长：
+ * <ul>
+ * <li>fvh（fast vector highlighter）：需要term_vector为with_positions_offsets，title使用这种方式</li>
+ * <li>unified：直接读取倒排索引中的偏移量（index_options为offsets），比term vector占用的磁盘少，content使用这种方式</li>
+ * <li>postings：同样使用倒排索引中的偏移量，但按句子切分片段，会忽略fragmentSize和noMatchSize，
+ * 没有句号的长文会返回整段文本，一般用unified代替</li>
+ * </ul>
+ * 没有指定高亮器时按字段选择，和ElasticSearchClientTest.testSetMappings中的mapping对应；
+ * 用旧mapping创建的索引需要重建，或者指定{@link Highlighter#PLAIN}。
+ */
+public class HighlightOptions {
+
+    public enum Highlighter {
+        PLAIN("plain"),
+        FAST_VECTOR("fvh"),
+        POSTINGS("postings"),
+        UNIFIED("unified");
+
+        private final String type;
+
+        Highlighter(String type) {
+            this.type = type;
+        }
+
+        public String getType() {
+            return type;
+        }
+    }
+
+    // 字段 -> mapping支持的高亮器
+    private static final Map<String, Highlighter> FIELD_HIGHLIGHTERS = new HashMap<>();
+
+    static {
+        FIELD_HIGHLIGHTERS.put("title", Highlighter.FAST_VECTOR);
+        FIELD_HIGHLIGHTERS.put("content", Highlighter.UNIFIED);
+    }
+
+    // null表示按字段选择
+    private Highlighter highlighter;
+    // 每个片段的字符数
+    private int fragmentSize = 100;
+    // 每个字段最多返回的片段数
+    private int numberOfFragments = 3;
+    // 字段中没有命中的词时，从开头返回多少个字符，0表示不返回
+    private int noMatchSize = 100;
+    private String preTag = "<em>";
+    private String postTag = "</em>";
+
+    /**
+     * 默认参数：按字段选择高亮器，最多3个100字符的片段，没有命中时返回前100个字符
+     */
+    public static HighlightOptions defaults() {
+        return new HighlightOptions();
+    }
+
+    public HighlightOptions highlighter(Highlighter highlighter) {
+        this.highlighter = highlighter;
+        return this;
+    }
+
+    public HighlightOptions fragmentSize(int fragmentSize) {
+        if (fragmentSize <= 0) {
+            throw new IllegalArgumentException("fragmentSize必须大于0：" + fragmentSize);
+        }
+        this.fragmentSize = fragmentSize;
+        return this;
+    }
+
+    public HighlightOptions numberOfFragments(int numberOfFragments) {
+        if (numberOfFragments < 0) {
+            throw new IllegalArgumentException("numberOfFragments不能小于0：" + numberOfFragments);
+        }
+        this.numberOfFragments = numberOfFragments;
+        return this;
+    }
+
+    public HighlightOptions noMatchSize(int noMatchSize) {
+        if (noMatchSize < 0) {
+            throw new IllegalArgumentException("noMatchSize不能小于0：" + noMatchSize);
+        }
+        this.noMatchSize = noMatchSize;
+        return this;
+    }
+
+    public HighlightOptions tags(String preTag, String postTag) {
+        this.preTag = preTag;
+        this.postTag = postTag;
+        return this;
+    }
+
+    /**
+     * 该字段实际使用的高亮器，没有指定且字段不在已知的mapping中时使用plain
+     */
+    public Highlighter highlighterFor(String field) {
+        if (highlighter != null) {
+            return highlighter;
+        }
+        return FIELD_HIGHLIGHTERS.getOrDefault(field, Highlighter.PLAIN);
+    }
+
+    /**
+     * 对这些字段高亮的HighlightBuilder
+     */
+    public HighlightBuilder toBuilder(String... fields) {
+        HighlightBuilder builder = new HighlightBuilder()
+                .preTags(preTag)
+                .postTags(postTag)
+                .fragmentSize(fragmentSize)
+                .numOfFragments(numberOfFragments)
+                .noMatchSize(noMatchSize);
+        for (String field : fields) {
+            builder.field(new HighlightBuilder.Field(field).highlighterType(highlighterFor(field).getType()));
+        }
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return (highlighter == null ? "auto" : highlighter.getType()) + ',' + fragmentSize + ',' + numberOfFragments
+                + ',' + noMatchSize + ',' + preTag + ',' + postTag;
+    }
+}
@@ -0,0 +1,206 @@
+package com.itheima.es.search;
+
+import com.itheima.es.client.IndexWriteEvents;
+import com.itheima.es.index.RolloverManager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 客户端查询结果缓存
+ * <p>
+ * key为索引名 + 查询的JSON + from/size/高亮字段/返回字段，按条目数和估算字节数限制容量，超出时按LRU淘汰，
+ * 条目超过ttl后失效。本进程通过{@link IndexWriteEvents}通知的写入会清空对应索引的所有条目，
+ * 索引按{@link RolloverManager#logicalName}归到逻辑名，写入写别名blog3-write或者后备索引时，查询读别名blog3的条目同样失效。
+ * <p>
+ * 写请求返回时文档还没有refresh，之后一个refresh间隔内的查询可能还看不到这次写入，
+ * 所以最近一次写入后一个refresh间隔（默认1s，和索引的refresh_interval一致）内执行的查询结果不放入缓存。
+ * <p>
+ * 缓存中保存的是结果的副本，每次命中也返回一个副本，调用方修改返回的文章不会影响缓存和其他调用方。
+ */
+public class QueryResultCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private long refreshIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private final Consumer<String> writeListener = this::invalidate;
+
+    // accessOrder=true，迭代顺序即为最近最少使用的顺序
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // 每个逻辑名的写入代数，查询期间发生写入时不缓存该查询的结果
+    private final Map<String, Long> generations = new HashMap<>();
+    // 每个逻辑名最近一次写入的时间（System.nanoTime）
+    private final Map<String, Long> lastWriteNanos = new HashMap<>();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong unrefreshed = new AtomicLong();
+
+    public QueryResultCache(int maxEntries, long maxBytes, long ttl, TimeUnit unit) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+        IndexWriteEvents.addListener(writeListener);
+    }
+
+    /**
+     * 设置索引的refresh间隔，索引的refresh_interval不是默认的1s时需要设置成一致的值
+     */
+    public synchronized QueryResultCache setRefreshInterval(long interval, TimeUnit unit) {
+        this.refreshIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * 从缓存取结果，没有时调用loader查询并放入缓存
+     */
+    public SearchResult get(String index, ArticleQuery query, Supplier<SearchResult> loader) {
+        String key = query.cacheKey(index);
+        String name = RolloverManager.logicalName(index);
+        long generation;
+        long startNanos = System.nanoTime();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.createdNanos < ttlNanos) {
+                    hits.incrementAndGet();
+                    return entry.result.copy();
+                }
+                remove(key, entry);
+                expirations.incrementAndGet();
+            }
+            generation = generations.getOrDefault(name, 0L);
+        }
+        misses.incrementAndGet();
+        // 在锁外查询，避免慢查询阻塞其他缓存读取
+        SearchResult result = loader.get();
+        synchronized (this) {
+            Long lastWrite = lastWriteNanos.get(name);
+            if (lastWrite != null && startNanos - lastWrite < refreshIntervalNanos) {
+                // 查询开始时最近的写入可能还没有refresh，结果可能不包含这次写入
+                unrefreshed.incrementAndGet();
+            } else if (generations.getOrDefault(name, 0L) == generation) {
+                put(key, new Entry(name, result.copy()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 清空某个索引（或者别名）所属逻辑名的所有缓存条目
+     */
+    public synchronized void invalidate(String index) {
+        String name = RolloverManager.logicalName(index);
+        generations.merge(name, 1L, Long::sum);
+        lastWriteNanos.put(name, System.nanoTime());
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.name.equals(name)) {
+                iterator.remove();
+                bytes -= entry.bytes;
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * 不再使用时调用，取消对写入通知的监听
+     */
+    public void close() {
+        IndexWriteEvents.removeListener(writeListener);
+        clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * 因为查询时最近的写入可能还没有refresh而没有放入缓存的次数
+     */
+    public long getUnrefreshed() {
+        return unrefreshed.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        long total = getHits() + getMisses();
+        return String.format("QueryResultCache{条目=%d，字节=%d，命中=%d，未命中=%d，命中率=%.1f%%，淘汰=%d，过期=%d，失效=%d，未refresh=%d}",
+                size(), getBytes(), getHits(), getMisses(), total == 0 ? 0 : getHits() * 100.0 / total,
+                getEvictions(), getExpirations(), getInvalidations(), getUnrefreshed());
+    }
+
+    private void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            bytes -= eldest.bytes;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final SearchResult result;
+        private final long bytes;
+        private final long createdNanos = System.nanoTime();
+
+        Entry(String name, SearchResult result) {
+            this.name = name;
+            this.result = result;
+            this.bytes = result.estimateBytes();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.itheima.es.search;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 合并正在执行的相同查询（single flight）
+ * <p>
+ * 同一个key的查询正在执行时，后来的调用方不再发送请求，而是等待并共享第一个请求的结果或异常；
+ * 第一个请求返回后key立即移除，之后的查询会重新发送，所以不会返回过期的结果，和{@link QueryResultCache}不同。
+ * key一般是查询的规范化JSON（{@link ArticleQuery#cacheKey}），可以再用keyNormalizer做进一步的归一化，
+ * 例如忽略大小写或多余的空白，让写法不同但结果相同的查询也能合并。
+ */
+public class SearchCoalescer {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * 把连续的空白合并成一个空格，"新版本  发布了"和"新版本 发布了"视为同一个查询
+     */
+    public static final Function<String, String> COLLAPSE_WHITESPACE = key -> WHITESPACE.matcher(key).replaceAll(" ");
+
+    /**
+     * 忽略大小写，只适用于查询的字段都使用了小写过滤的分词器
+     */
+    public static final Function<String, String> IGNORE_CASE = key -> key.toLowerCase(Locale.ROOT);
+
+    private final Function<String, String> keyNormalizer;
+    private final ConcurrentMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * key只按原样比较
+     */
+    public SearchCoalescer() {
+        this(Function.identity());
+    }
+
+    /**
+     * @param keyNormalizer 比较前对key做的归一化，可以用andThen组合，例如 COLLAPSE_WHITESPACE.andThen(IGNORE_CASE)
+     */
+    public SearchCoalescer(Function<String, String> keyNormalizer) {
+        this.keyNormalizer = keyNormalizer;
+    }
+
+    /**
+     * 按索引和ArticleQuery合并搜索
+     */
+    public SearchResult search(String index, ArticleQuery query, Supplier<SearchResult> loader) {
+        return execute(query.cacheKey(index), loader);
+    }
+
+    /**
+     * 同步执行，相同key的查询正在执行时等待它的结果，否则在当前线程调用loader
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        String normalized = keyNormalizer.apply(key);
+        CompletableFuture<T> pending = new CompletableFuture<>();
+        CompletableFuture<T> existing = (CompletableFuture<T>) inFlight.putIfAbsent(normalized, pending);
+        if (existing != null) {
+            coalesced.increment();
+            return join(existing);
+        }
+        executed.increment();
+        try {
+            T result = loader.get();
+            pending.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(normalized, pending);
+        }
+    }
+
+    /**
+     * 异步执行，相同key的查询正在执行时返回同一个future，否则调用loader发起请求
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> loader) {
+        String normalized = keyNormalizer.apply(key);
+        CompletableFuture<T> pending = new CompletableFuture<>();
+        CompletableFuture<T> existing = (CompletableFuture<T>) inFlight.putIfAbsent(normalized, pending);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        executed.increment();
+        CompletableFuture<T> request;
+        try {
+            request = loader.get();
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(normalized, pending);
+            pending.completeExceptionally(e);
+            return pending;
+        }
+        request.whenComplete((result, failure) -> {
+            // 先移除再完成，回调中再发起的相同查询会重新发送
+            inFlight.remove(normalized, pending);
+            if (failure != null) {
+                pending.completeExceptionally(failure);
+            } else {
+                pending.complete(result);
+            }
+        });
+        return pending;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // 抛出和第一个调用方相同的异常
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 实际发送的查询数
+     */
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    /**
+     * 合并到其他查询、没有发送请求的查询数
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 当前正在执行的不同查询数
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    public void resetStats() {
+        executed.reset();
+        coalesced.reset();
+    }
+
+    @Override
+    public String toString() {
+        long total = getExecuted() + getCoalesced();
+        return String.format("SearchCoalescer{发送=%d，合并=%d，合并率=%.1f%%，执行中=%d}",
+                getExecuted(), getCoalesced(), total == 0 ? 0 : getCoalesced() * 100.0 / total, getInFlight());
+    }
+}
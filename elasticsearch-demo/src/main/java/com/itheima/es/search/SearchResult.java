@@ -0,0 +1,117 @@
+package com.itheima.es.search;
+
+import com.itheima.es.Article;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次搜索的结果：总命中数、当前页的文档以及高亮片段
+ */
+public class SearchResult {
+
+    private final long totalHits;
+    private final long tookInMillis;
+    private final List<Article> articles;
+    // 文档_id -> (字段 -> 高亮片段)
+    private final Map<String, Map<String, List<String>>> highlights;
+    // 最后一个文档的排序值，作为下一页的search_after
+    private final Object[] lastSortValues;
+
+    public SearchResult(long totalHits, long tookInMillis, List<Article> articles,
+                        Map<String, Map<String, List<String>>> highlights) {
+        this(totalHits, tookInMillis, articles, highlights, null);
+    }
+
+    public SearchResult(long totalHits, long tookInMillis, List<Article> articles,
+                        Map<String, Map<String, List<String>>> highlights, Object[] lastSortValues) {
+        this.lastSortValues = lastSortValues;
+        this.totalHits = totalHits;
+        this.tookInMillis = tookInMillis;
+        this.articles = Collections.unmodifiableList(articles);
+        this.highlights = Collections.unmodifiableMap(highlights);
+    }
+
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    public long getTookInMillis() {
+        return tookInMillis;
+    }
+
+    public List<Article> getArticles() {
+        return articles;
+    }
+
+    public Map<String, Map<String, List<String>>> getHighlights() {
+        return highlights;
+    }
+
+    /**
+     * 最后一个文档的排序值，传给{@link ArticleQuery#searchAfter(Object...)}取下一页；
+     * 没有排序或者当前页为空时返回null
+     */
+    public Object[] getLastSortValues() {
+        return lastSortValues;
+    }
+
+    /**
+     * 取某个文档某个字段的高亮片段，没有高亮时返回空列表
+     */
+    public List<String> getHighlight(Article article, String field) {
+        Map<String, List<String>> fields = highlights.get(String.valueOf(article.getId()));
+        if (fields == null || !fields.containsKey(field)) {
+            return Collections.emptyList();
+        }
+        return fields.get(field);
+    }
+
+    /**
+     * 复制文章和高亮片段，缓存中的结果不会被调用方修改
+     */
+    public SearchResult copy() {
+        List<Article> articles = new ArrayList<>(this.articles.size());
+        for (Article article : this.articles) {
+            Article copy = new Article();
+            copy.setId(article.getId());
+            copy.setTitle(article.getTitle());
+            copy.setContent(article.getContent());
+            copy.setCategory(article.getCategory());
+            articles.add(copy);
+        }
+        Map<String, Map<String, List<String>>> highlights = new HashMap<>();
+        this.highlights.forEach((id, fields) -> {
+            Map<String, List<String>> copy = new HashMap<>();
+            fields.forEach((field, fragments) -> copy.put(field, new ArrayList<>(fragments)));
+            highlights.put(id, copy);
+        });
+        return new SearchResult(totalHits, tookInMillis, articles, highlights,
+                lastSortValues == null ? null : lastSortValues.clone());
+    }
+
+    /**
+     * 估算结果占用的内存字节数，供缓存按字节数限制容量
+     */
+    public long estimateBytes() {
+        long bytes = 64;
+        for (Article article : articles) {
+            bytes += 48 + length(article.getTitle()) * 2L + length(article.getContent()) * 2L;
+        }
+        for (Map<String, List<String>> fields : highlights.values()) {
+            for (List<String> fragments : fields.values()) {
+                for (String fragment : fragments) {
+                    bytes += 40 + length(fragment) * 2L;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
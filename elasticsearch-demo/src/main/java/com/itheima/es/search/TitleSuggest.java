@@ -0,0 +1,84 @@
+package com.itheima.es.search;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.search.suggest.Suggest;
+import org.elasticsearch.search.suggest.SuggestBuilder;
+import org.elasticsearch.search.suggest.SuggestBuilders;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
+import org.elasticsearch.search.suggest.completion.FuzzyOptions;
+import org.elasticsearch.search.suggest.completion.context.CategoryQueryContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 标题的输入提示（typeahead），使用title.suggest这个completion子字段
+ * <p>
+ * completion字段在内存中用FST保存所有标题，按前缀查找不经过倒排索引和打分，
+ * 比每次按键都发一个queryStringQuery便宜得多。它是title的子字段，写入文档时由ES自动从title生成，
+ * 分类上下文取自category字段，index和bulk都不需要额外设置。mapping见ElasticSearchClientTest.testSetMappings。
+ */
+public final class TitleSuggest {
+
+    public static final String FIELD = "title.suggest";
+    // completion字段中按category过滤的上下文名
+    public static final String CATEGORY_CONTEXT = "category";
+    private static final String NAME = "title";
+
+    private TitleSuggest() {
+    }
+
+    /**
+     * 按前缀提示标题
+     *
+     * @param fuzzy      是否容忍拼写错误，前缀1-2个字不允许错误，3-5个字允许1个，更长允许2个
+     * @param categories 只提示这些分类的文章，为空时不过滤
+     */
+    public static SuggestBuilder build(String prefix, int size, boolean fuzzy, String... categories) {
+        CompletionSuggestionBuilder completion = SuggestBuilders.completionSuggestion(FIELD).size(size);
+        if (fuzzy) {
+            // 按字符而不是按字节计算编辑距离，中文一个字算一次编辑
+            completion.prefix(prefix, FuzzyOptions.builder()
+                    .setFuzziness(Fuzziness.AUTO)
+                    .setUnicodeAware(true)
+                    .build());
+        } else {
+            completion.prefix(prefix);
+        }
+        if (categories != null && categories.length > 0) {
+            List<CategoryQueryContext> contexts = new ArrayList<>(categories.length);
+            for (String category : categories) {
+                contexts.add(CategoryQueryContext.builder().setCategory(category).build());
+            }
+            completion.contexts(Collections.<String, List<? extends ToXContent>>singletonMap(CATEGORY_CONTEXT, contexts));
+        }
+        return new SuggestBuilder().addSuggestion(NAME, completion);
+    }
+
+    /**
+     * 取出提示的标题，按得分排序并去掉重复的标题，所以可能少于请求的个数
+     */
+    public static List<String> titles(SearchResponse response) {
+        Suggest suggest = response.getSuggest();
+        if (suggest == null) {
+            return Collections.emptyList();
+        }
+        CompletionSuggestion suggestion = suggest.getSuggestion(NAME);
+        if (suggestion == null) {
+            return Collections.emptyList();
+        }
+        Set<String> titles = new LinkedHashSet<>();
+        for (CompletionSuggestion.Entry entry : suggestion.getEntries()) {
+            for (CompletionSuggestion.Entry.Option option : entry.getOptions()) {
+                titles.add(option.getText().string());
+            }
+        }
+        return new ArrayList<>(titles);
+    }
+}
@@ -0,0 +1,182 @@
+package com.itheima.es.bulk;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.support.AbstractClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ArticleUpdateBuffer的合并、发送顺序和关闭，bulk请求由内存中的client记录，不需要连接集群
+ */
+public class ArticleUpdateBufferTest {
+
+    private ThreadPool threadPool;
+    private RecordingClient client;
+
+    @Before
+    public void setUp() {
+        threadPool = new ThreadPool(Settings.builder().put("node.name", "test").build());
+        client = new RecordingClient(threadPool);
+    }
+
+    @After
+    public void tearDown() {
+        ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testUpdatesOfSameDocumentAreMerged() throws Exception {
+        // 窗口足够长，只有flush时才发送
+        ArticleUpdateBuffer buffer = new ArticleUpdateBuffer(client, "blog2", "article", 60000, 1000);
+        client.respondImmediately = true;
+        List<CompletableFuture<DocWriteResponse.Result>> futures = new ArrayList<>();
+        futures.add(buffer.update("1", "java", fields("title", "a")));
+        futures.add(buffer.update("1", "java", fields("content", "b")));
+        futures.add(buffer.update("1", "java", fields("title", "c")));
+        futures.add(buffer.update("2", null, fields("title", "d")));
+        buffer.flush();
+
+        assertEquals(1, client.bulks.size());
+        BulkRequest bulk = client.bulks.get(0);
+        assertEquals(2, bulk.numberOfActions());
+        UpdateRequest first = (UpdateRequest) bulk.requests().get(0);
+        assertEquals("1", first.id());
+        assertEquals("java", first.routing());
+        // 后面的字段值覆盖前面的
+        Map<String, Object> doc = first.doc().sourceAsMap();
+        assertEquals("c", doc.get("title"));
+        assertEquals("b", doc.get("content"));
+        assertTrue(first.detectNoop());
+        assertEquals("2", bulk.requests().get(1).id());
+
+        for (CompletableFuture<DocWriteResponse.Result> future : futures) {
+            assertEquals(DocWriteResponse.Result.UPDATED, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(4, buffer.getSubmitted());
+        assertEquals(2, buffer.getMerged());
+        assertEquals(2, buffer.getWritten());
+        assertEquals(1, buffer.getBulks());
+        buffer.close();
+    }
+
+    /**
+     * bulk在途期间的更新继续合并，bulk返回后才发送下一个，同一个文档的两次写入不会乱序
+     */
+    @Test
+    public void testOnlyOneBulkInFlight() throws Exception {
+        ArticleUpdateBuffer buffer = new ArticleUpdateBuffer(client, "blog2", "article", 60000, 2);
+        CompletableFuture<DocWriteResponse.Result> first = buffer.update("1", null, fields("title", "a"));
+        buffer.update("2", null, fields("title", "b"));
+        // 达到上限，第一个bulk发出
+        assertEquals(1, client.bulks.size());
+
+        CompletableFuture<DocWriteResponse.Result> second = buffer.update("1", null, fields("title", "c"));
+        buffer.update("3", null, fields("title", "d"));
+        buffer.flush();
+        assertEquals(1, client.bulks.size());
+        assertFalse(first.isDone());
+
+        client.respond(0);
+        assertEquals(DocWriteResponse.Result.UPDATED, first.get(10, TimeUnit.SECONDS));
+        assertEquals(2, client.bulks.size());
+        UpdateRequest resent = (UpdateRequest) client.bulks.get(1).requests().get(0);
+        assertEquals("1", resent.id());
+        assertEquals("c", resent.doc().sourceAsMap().get("title"));
+        assertFalse(second.isDone());
+
+        client.respond(1);
+        assertEquals(DocWriteResponse.Result.UPDATED, second.get(10, TimeUnit.SECONDS));
+        buffer.close();
+    }
+
+    @Test
+    public void testCloseSendsPendingUpdatesAndRejectsNewOnes() throws Exception {
+        ArticleUpdateBuffer buffer = new ArticleUpdateBuffer(client, "blog2", "article", 60000, 1000);
+        client.respondImmediately = true;
+        CompletableFuture<DocWriteResponse.Result> pending = buffer.update("1", null, fields("title", "a"));
+        buffer.close();
+        assertEquals(DocWriteResponse.Result.UPDATED, pending.get(10, TimeUnit.SECONDS));
+        try {
+            buffer.update("1", null, fields("title", "b"));
+            fail("关闭后应该拒绝新的更新");
+        } catch (IllegalStateException expected) {
+            // 关闭后不能再添加
+        }
+        assertEquals(1, client.bulks.size());
+    }
+
+    private static Map<String, Object> fields(String name, Object value) {
+        return new HashMap<>(Collections.singletonMap(name, value));
+    }
+
+    /**
+     * 记录收到的bulk请求，每个文档都返回UPDATED；respondImmediately为false时等调用respond才返回
+     */
+    private static class RecordingClient extends AbstractClient {
+
+        private final List<BulkRequest> bulks = Collections.synchronizedList(new ArrayList<>());
+        private final List<ActionListener<BulkResponse>> listeners = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean respondImmediately;
+
+        RecordingClient(ThreadPool threadPool) {
+            super(Settings.EMPTY, threadPool);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected <Request extends ActionRequest, Response extends ActionResponse,
+                RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+            bulks.add((BulkRequest) request);
+            listeners.add((ActionListener<BulkResponse>) listener);
+            if (respondImmediately) {
+                respond(bulks.size() - 1);
+            }
+        }
+
+        void respond(int bulk) {
+            BulkRequest request = bulks.get(bulk);
+            BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+            for (int i = 0; i < items.length; i++) {
+                DocWriteRequest<?> item = request.requests().get(i);
+                items[i] = new BulkItemResponse(i, DocWriteRequest.OpType.UPDATE, new UpdateResponse(
+                        new ShardId(new Index(item.index(), "_na_"), 0), item.type(), item.id(), 1,
+                        DocWriteResponse.Result.UPDATED));
+            }
+            listeners.get(bulk).onResponse(new BulkResponse(items, 1));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
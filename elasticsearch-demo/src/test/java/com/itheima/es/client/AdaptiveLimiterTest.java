@@ -0,0 +1,102 @@
+package com.itheima.es.client;
+
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * AdaptiveLimiter按拒绝情况调整上限（AIMD），不需要连接集群
+ */
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testRejectionHalvesLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 16);
+        reject(limiter);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getDecreases());
+    }
+
+    /**
+     * 减半之前发出的请求随后被拒绝，不会再次减半
+     */
+    @Test
+    public void testOneRoundOfRejectionsHalvesOnce() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 16);
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        CompletableFuture<Object> second = new CompletableFuture<>();
+        limiter.submit(() -> first, value -> false);
+        limiter.submit(() -> second, value -> false);
+        first.completeExceptionally(new EsRejectedExecutionException("rejected"));
+        second.completeExceptionally(new EsRejectedExecutionException("rejected"));
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getDecreases());
+
+        // 减半之后发出的请求被拒绝，再减半
+        reject(limiter);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitNeverBelowMinimum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 2, 4);
+        reject(limiter);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testSuccessIncreasesLimitUpToMaximum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 3);
+        // 上限为1时一次成功就加1，之后每轮全部成功加1
+        succeed(limiter);
+        assertEquals(2, limiter.getLimit());
+        // 2 -> 2.5 -> 2.9 -> 3
+        succeed(limiter);
+        succeed(limiter);
+        assertEquals(2, limiter.getLimit());
+        succeed(limiter);
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 10; i++) {
+            succeed(limiter);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    /**
+     * 请求成功但部分被拒绝（例如bulk中的文档）同样减半
+     */
+    @Test
+    public void testPartialRejectionHalvesLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 16);
+        limiter.submit(() -> CompletableFuture.completedFuture("部分被拒绝"), value -> true).join();
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testOtherFailuresDoNotChangeLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 16);
+        CompletableFuture<Object> request = new CompletableFuture<>();
+        limiter.submit(() -> request, value -> false);
+        request.completeExceptionally(new IllegalStateException("索引不存在"));
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getDecreases());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInitialLimitAboveMaximum() {
+        new AdaptiveLimiter(8, 1, 4);
+    }
+
+    private static void reject(AdaptiveLimiter limiter) {
+        CompletableFuture<Object> request = new CompletableFuture<>();
+        limiter.submit(() -> request, value -> false);
+        request.completeExceptionally(new EsRejectedExecutionException("rejected"));
+    }
+
+    private static void succeed(AdaptiveLimiter limiter) {
+        limiter.submit(() -> CompletableFuture.completedFuture("ok"), value -> false).join();
+    }
+}
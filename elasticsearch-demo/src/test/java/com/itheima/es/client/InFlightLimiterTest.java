@@ -0,0 +1,107 @@
+package com.itheima.es.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * InFlightLimiter的排队、调整上限和同步完成，不需要连接集群
+ */
+public class InFlightLimiterTest {
+
+    @Test
+    public void testQueuesRequestsBeyondLimit() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(2);
+        List<CompletableFuture<Integer>> requests = new ArrayList<>();
+        AtomicInteger started = new AtomicInteger();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<Integer> request = new CompletableFuture<>();
+            requests.add(request);
+            results.add(limiter.submit(() -> {
+                started.incrementAndGet();
+                return request;
+            }));
+        }
+        assertEquals(2, started.get());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getQueued());
+
+        // 前面的请求完成后，排队的请求才发出
+        requests.get(0).complete(0);
+        assertEquals(3, started.get());
+        assertEquals(0, limiter.getQueued());
+        assertEquals(Integer.valueOf(0), results.get(0).get());
+
+        requests.get(1).complete(1);
+        requests.get(2).complete(2);
+        assertEquals(Integer.valueOf(2), results.get(2).get());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testRaisingLimitSendsQueuedRequests() {
+        InFlightLimiter limiter = new InFlightLimiter(1);
+        AtomicInteger started = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            limiter.submit(() -> {
+                started.incrementAndGet();
+                return new CompletableFuture<>();
+            });
+        }
+        assertEquals(1, started.get());
+        limiter.setMaxInFlight(3);
+        assertEquals(3, started.get());
+        assertEquals(1, limiter.getQueued());
+    }
+
+    @Test
+    public void testFailureReleasesSlot() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1);
+        CompletableFuture<Object> failed = limiter.submit(() -> {
+            throw new IllegalStateException("发送失败");
+        });
+        try {
+            failed.get();
+            fail("应该抛出异常");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals("ok", limiter.submit(() -> CompletableFuture.completedFuture("ok")).get());
+    }
+
+    /**
+     * 排队的请求都同步完成时，在一个循环中依次发出，调用栈不会随排队数增长
+     */
+    @Test
+    public void testSynchronousCompletionDoesNotRecurse() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1);
+        CompletableFuture<Integer> gate = new CompletableFuture<>();
+        limiter.submit(() -> gate);
+        CompletableFuture<Integer> last = null;
+        for (int i = 0; i < 100000; i++) {
+            int value = i;
+            last = limiter.submit(() -> CompletableFuture.completedFuture(value));
+        }
+        assertFalse(last.isDone());
+        gate.complete(-1);
+        assertEquals(Integer.valueOf(99999), last.get());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveLimit() {
+        new InFlightLimiter(0);
+    }
+}
@@ -0,0 +1,45 @@
+package com.itheima.es.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RetryBudget的存入和取出，不需要连接集群
+ */
+public class RetryBudgetTest {
+
+    @Test
+    public void testRetriesLimitedToRatioOfRequests() {
+        RetryBudget budget = new RetryBudget(0.2, 0);
+        budget.deposit(1000);
+        // 两次调用之间令牌会衰减一点点，所以是199或200
+        int allowed = budget.tryWithdraw(1000);
+        assertTrue("allowed=" + allowed, allowed == 199 || allowed == 200);
+        assertEquals(allowed, budget.getGranted());
+        assertEquals(1000 - allowed, budget.getDenied());
+        assertEquals(0, budget.tryWithdraw(1));
+    }
+
+    @Test
+    public void testMinPerSecondAllowsRetriesWithoutTraffic() {
+        RetryBudget budget = new RetryBudget(0, 1);
+        // 开始时有minPerSecond * 10秒的令牌
+        int allowed = budget.tryWithdraw(100);
+        assertTrue("allowed=" + allowed, allowed == 9 || allowed == 10);
+    }
+
+    @Test
+    public void testEmptyBudgetDeniesRetries() {
+        RetryBudget budget = new RetryBudget(0, 0);
+        budget.deposit(100);
+        assertEquals(0, budget.tryWithdraw(5));
+        assertEquals(5, budget.getDenied());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNegativeRatio() {
+        new RetryBudget(-0.1, 0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.itheima.es.search;
+
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * QueryResultCache的失效和refresh间隔，不需要连接集群
+ */
+public class QueryResultCacheTest {
+
+    private final QueryResultCache cache = new QueryResultCache(100, 1024 * 1024, 1, TimeUnit.MINUTES);
+    private final ArticleQuery query = ArticleQuery.of(QueryBuilders.termQuery("title", "搜索"));
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Supplier<SearchResult> loader = () -> {
+        loads.incrementAndGet();
+        return new SearchResult(0, 1, Collections.emptyList(), Collections.emptyMap());
+    };
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void testSecondQueryHitsCache() {
+        cache.get("blog3", query, loader);
+        cache.get("blog3", query, loader);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testWriteToBackingIndexInvalidatesReadAlias() {
+        cache.setRefreshInterval(0, TimeUnit.MILLISECONDS);
+        cache.get("blog3", query, loader);
+        cache.invalidate("blog3-000002");
+        cache.get("blog3", query, loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testQueryWithinRefreshIntervalIsNotCached() throws Exception {
+        cache.setRefreshInterval(200, TimeUnit.MILLISECONDS);
+        cache.invalidate("blog3-write");
+        // 写入后还没有refresh，结果可能不包含这次写入，不能缓存
+        cache.get("blog3", query, loader);
+        cache.get("blog3", query, loader);
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.getUnrefreshed());
+        assertEquals(0, cache.size());
+
+        Thread.sleep(250);
+        cache.get("blog3", query, loader);
+        cache.get("blog3", query, loader);
+        assertEquals(3, loads.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testWriteToOtherIndexDoesNotDelayCaching() {
+        cache.invalidate("blog2");
+        cache.get("blog3", query, loader);
+        cache.get("blog3", query, loader);
+        assertEquals(1, loads.get());
+    }
+}
@@ -0,0 +1,133 @@
+package com.itheima.es.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SearchCoalescer合并正在执行的相同查询，不需要连接集群
+ */
+public class SearchCoalescerTest {
+
+    @Test
+    public void testConcurrentAsyncCallsShareOneRequest() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer();
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> first = coalescer.executeAsync("q", () -> {
+            loads.incrementAndGet();
+            return request;
+        });
+        CompletableFuture<String> second = coalescer.executeAsync("q", () -> {
+            loads.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(1, coalescer.getInFlight());
+
+        request.complete("结果");
+        assertEquals("结果", second.get());
+        assertEquals(0, coalescer.getInFlight());
+        assertEquals(1, coalescer.getExecuted());
+        assertEquals(1, coalescer.getCoalesced());
+    }
+
+    /**
+     * 第一个请求返回后key被移除，之后的相同查询重新发送，不会返回过期的结果
+     */
+    @Test
+    public void testCompletedRequestIsNotReused() {
+        SearchCoalescer coalescer = new SearchCoalescer();
+        assertEquals("1", coalescer.executeAsync("q", () -> CompletableFuture.completedFuture("1")).join());
+        assertEquals("2", coalescer.executeAsync("q", () -> CompletableFuture.completedFuture("2")).join());
+        assertEquals(2, coalescer.getExecuted());
+        assertEquals(0, coalescer.getCoalesced());
+    }
+
+    @Test
+    public void testNormalizedKeysAreCoalesced() {
+        SearchCoalescer coalescer = new SearchCoalescer(
+                SearchCoalescer.COLLAPSE_WHITESPACE.andThen(SearchCoalescer.IGNORE_CASE));
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> first = coalescer.executeAsync("新版本  发布了 Java", () -> request);
+        CompletableFuture<String> second = coalescer.executeAsync("新版本 发布了 java",
+                CompletableFuture::new);
+        assertSame(first, second);
+        coalescer.executeAsync("新版本 发布了 python", CompletableFuture::new);
+        assertEquals(2, coalescer.getExecuted());
+    }
+
+    @Test
+    public void testFailureIsSharedWithWaitingCallers() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer();
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> first = coalescer.executeAsync("q", () -> request);
+        CompletableFuture<String> second = coalescer.executeAsync("q", CompletableFuture::new);
+        request.completeExceptionally(new IllegalStateException("查询失败"));
+        for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+            try {
+                future.get();
+                fail("应该抛出异常");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    /**
+     * 同步调用在另一个线程的相同查询执行期间等待它的结果
+     */
+    @Test
+    public void testSynchronousCallWaitsForRunningQuery() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> coalescer.execute("q", () -> {
+                loads.incrementAndGet();
+                await(release);
+                return "结果";
+            }));
+            while (coalescer.getInFlight() == 0) {
+                Thread.sleep(1);
+            }
+            Future<String> second = executor.submit(() -> coalescer.execute("q", () -> {
+                loads.incrementAndGet();
+                return "不应该执行";
+            }));
+            while (coalescer.getCoalesced() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            assertEquals("结果", first.get());
+            assertEquals("结果", second.get());
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -6,9 +6,32 @@ import org.springframework.data.elasticsearch.repository.ElasticsearchRepository
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Optional;
 
 @Component
-public interface ArticleRepository extends ElasticsearchRepository<Article, Long> {
+public interface ArticleRepository extends ElasticsearchRepository<Article, Long>, ArticleRepositoryCustom {
+
+    // CrudRepository和ArticleRepositoryCustom中都有这些方法，在这里重新声明消除歧义，实际由ArticleRepositoryImpl实现
+    @Override
+    <S extends Article> S save(S article);
+
+    @Override
+    <S extends Article> Iterable<S> saveAll(Iterable<S> articles);
+
+    @Override
+    void delete(Article article);
+
+    @Override
+    void deleteById(Long id);
+
+    @Override
+    Optional<Article> findById(Long id);
+
+    @Override
+    boolean existsById(Long id);
+
+    @Override
+    Iterable<Article> findAllById(Iterable<Long> ids);
 
     List<Article> findByTitle(String title);
 
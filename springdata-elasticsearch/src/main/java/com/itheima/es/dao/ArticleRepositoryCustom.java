@@ -0,0 +1,196 @@
+package com.itheima.es.dao;
+
+import com.itheima.es.entity.Article;
+import com.itheima.es.search.AggregationResult;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * ArticleRepository中无法通过方法名派生的查询，由ArticleRepositoryImpl实现
+ * <p>
+ * 这里的save、saveAll、delete和ElasticsearchRepository中的方法签名相同，会优先于默认实现被调用，
+ * 写入和删除时带上Article中@Routing字段的值。
+ * <p>
+ * 配置了RolloverManager（见applicationContext.xml中的articleRollover）时，blog3是指向所有后备索引的读别名，
+ * 新文章写入写别名blog3-write；按id读写的方法先找到文章所在的后备索引，已经只读的旧索引中的文章不能修改和删除。
+ */
+public interface ArticleRepositoryCustom {
+
+    /**
+     * 写入文档并刷新索引，routing为文章的分类
+     */
+    <S extends Article> S save(S article);
+
+    /**
+     * 一次bulk写入所有文档并刷新索引，每个文档使用各自的routing
+     */
+    <S extends Article> Iterable<S> saveAll(Iterable<S> articles);
+
+    /**
+     * 按id和routing删除文档
+     */
+    void delete(Article article);
+
+    /**
+     * 按id删除文档，不知道routing时使用，先用{@link #findById(Long)}找到文章
+     */
+    void deleteById(Long id);
+
+    /**
+     * 按id读取文档，不知道routing时使用。mapping要求routing，只有id时不能get，
+     * 只能在所有分片上执行ids查询，读不到还没有refresh的文档；知道分类时使用{@link #findById(Long, String)}
+     */
+    Optional<Article> findById(Long id);
+
+    /**
+     * 同{@link #findById(Long)}，在所有分片上执行ids查询
+     */
+    boolean existsById(Long id);
+
+    /**
+     * 同{@link #findById(Long)}，在所有分片上执行ids查询；知道分类时使用{@link #findAllById(Iterable, String)}
+     */
+    Iterable<Article> findAllById(Iterable<Long> ids);
+
+    /**
+     * 只更新article中的这些属性，例如update(article, "title")，不再重新写入很长的content；
+     * 值没有变化时返回NOOP，不会写入。写入后不刷新索引
+     */
+    DocWriteResponse.Result update(Article article, String... properties);
+
+    /**
+     * 更新文档的部分字段，文档不存在时抛出异常
+     */
+    DocWriteResponse.Result update(Long id, String routing, Map<String, Object> fields);
+
+    /**
+     * 只更新article中的这些属性，文档不存在时写入整篇文章
+     */
+    DocWriteResponse.Result upsert(Article article, String... properties);
+
+    /**
+     * 延迟更新article中的这些属性，窗口内对同一篇文章的多次更新合并成一次，和其他文章的更新一起用bulk发送，
+     * 见applicationContext.xml中的articleUpdateBuffer；没有配置时立即更新
+     */
+    CompletableFuture<DocWriteResponse.Result> updateLater(Article article, String... properties);
+
+    /**
+     * 根据id查询带routing写入的文档，routing必须和写入时相同，否则会到别的分片上查找；
+     * 使用get，马上可以读到刚写入的文档
+     */
+    Optional<Article> findById(Long id, String routing);
+
+    /**
+     * 根据同一个routing（例如同一分类）下的一组id查询文档，一次multi get请求，不存在的id不会出现在结果中
+     */
+    List<Article> findAllById(Iterable<Long> ids, String routing);
+
+    /**
+     * 分页查询，只查询routing对应的分片；routing只决定查询哪些分片，query中仍然需要按分类过滤
+     */
+    Page<Article> search(QueryBuilder query, String routing, Pageable pageable);
+
+    /**
+     * 某个分类中title匹配的文章，只查询该分类所在的分片
+     */
+    Page<Article> findByTitleAndCategory(String title, String category, Pageable pageable);
+
+    /**
+     * 搜索框的输入提示，返回以prefix开头的标题，容忍拼写错误；
+     * categories不为空时只提示这些分类的文章，并且只查询这些分类所在的分片
+     */
+    List<String> suggest(String prefix, int size, String... categories);
+
+    /**
+     * 执行查询，和正在执行的相同查询（查询条件、分页、排序、字段都相同）共享同一次请求，
+     * 见applicationContext.xml中的searchCoalescer
+     */
+    Page<Article> search(SearchQuery query);
+
+    /**
+     * 分页查询，_source中只返回includes中的字段
+     */
+    Page<Article> search(QueryBuilder query, Pageable pageable, String... includes);
+
+    /**
+     * 分页查询，不返回_source，只读取store = true的这些字段
+     */
+    Page<Article> searchStoredFields(QueryBuilder query, Pageable pageable, String... storedFields);
+
+    /**
+     * 和findByTitleOrContent的条件相同，但只返回id和title，用于列表页
+     */
+    Page<Article> findTitlesByTitleOrContent(String title, String content, Pageable pageable);
+
+    /**
+     * 用scroll逐批读取全部文档，使用完必须关闭Stream以清除scroll上下文：
+     * <pre>
+     * try (Stream&lt;Article&gt; articles = articleRepository.streamAll()) {
+     *     articles.forEach(...);
+     * }
+     * </pre>
+     */
+    Stream<Article> streamAll();
+
+    /**
+     * 用scroll逐批读取title匹配的文档，同样需要关闭Stream
+     */
+    Stream<Article> streamByTitle(String title);
+
+    /**
+     * 用scroll逐批读取查询结果，内存中最多只有一批文档
+     *
+     * @param batchSize       每批读取的文档数
+     * @param keepAliveMillis 两批之间scroll上下文的保留时间，处理一批的时间不能超过它
+     */
+    Stream<Article> stream(QueryBuilder query, int batchSize, long keepAliveMillis);
+
+    /**
+     * 用search_after翻页，忽略query中的分页，每页的开销和第一页相同：
+     * <pre>
+     * SearchAfterCursor cursor = SearchAfterCursor.first(15, Sort.by("id"));
+     * while (cursor != null) {
+     *     CursorSlice&lt;Article&gt; slice = articleRepository.searchAfter(query, cursor);
+     *     ...
+     *     cursor = slice.getNextCursor();
+     * }
+     * </pre>
+     */
+    CursorSlice<Article> searchAfter(SearchQuery query, SearchAfterCursor cursor);
+
+    /**
+     * 对任意查询条件用search_after翻页。派生查询方法只认Pageable，不能接收游标，
+     * 需要游标翻页的条件用这个方法传入对应的QueryBuilder
+     */
+    CursorSlice<Article> searchAfter(QueryBuilder query, SearchAfterCursor cursor);
+
+    /**
+     * 和findByTitleOrContent的条件相同，用search_after翻页，等同于用这个条件调用{@link #searchAfter(QueryBuilder, SearchAfterCursor)}
+     */
+    CursorSlice<Article> findByTitleOrContent(String title, String content, SearchAfterCursor cursor);
+
+    /**
+     * 只做聚合不返回文档（size=0），按聚合名称从结果中取出桶、指标或统计值
+     */
+    AggregationResult aggregate(QueryBuilder query, AbstractAggregationBuilder<?>... aggregations);
+
+    /**
+     * 满足条件的文档数，每个分片数到terminateAfter条就停止，结果是一个下限
+     */
+    long count(QueryBuilder query, int terminateAfter);
+
+    /**
+     * 是否存在满足条件的文档，每个分片找到一条就停止
+     */
+    boolean exists(QueryBuilder query);
+}
@@ -0,0 +1,627 @@
+package com.itheima.es.dao;
+
+import com.itheima.es.bulk.ArticleUpdateBuffer;
+import com.itheima.es.entity.Article;
+import com.itheima.es.index.EntityRouting;
+import com.itheima.es.index.RolloverManager;
+import com.itheima.es.search.AggregationResult;
+import com.itheima.es.search.SearchCoalescer;
+import com.itheima.es.search.TitleSuggest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.DefaultEntityMapper;
+import org.springframework.data.elasticsearch.core.DefaultResultMapper;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+import org.springframework.data.elasticsearch.core.ScrolledPage;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.data.elasticsearch.core.query.SourceFilter;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.StreamUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * ArticleRepositoryCustom的实现，spring data按"接口名 + Impl"的约定自动找到它
+ */
+public class ArticleRepositoryImpl implements ArticleRepositoryCustom {
+
+    // scroll每批读取的文档数和scroll上下文的保留时间
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long DEFAULT_KEEP_ALIVE = TimeUnit.MINUTES.toMillis(1);
+
+    @Autowired
+    private ElasticsearchTemplate template;
+    // search_after和带routing的查询直接使用client，结果仍按实体映射转换成Article
+    private DefaultResultMapper resultMapper;
+    // 和ElasticsearchTemplate默认使用的映射相同，带routing写入时生成_source
+    private final EntityMapper entityMapper = new DefaultEntityMapper();
+    // 没有配置时不合并查询
+    @Autowired(required = false)
+    private SearchCoalescer searchCoalescer;
+    // 没有配置时updateLater立即更新
+    @Autowired(required = false)
+    private ArticleUpdateBuffer updateBuffer;
+    // 没有配置时Article只有一个索引，按id读写实体上的索引
+    @Autowired(required = false)
+    private RolloverManager rollover;
+
+    @Override
+    public <S extends Article> S save(S article) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        String index = indexOf(entity, article.getId(), EntityRouting.routingOf(article));
+        prepareIndex(entity, index, article).get();
+        // 和默认的save一样，写入后刷新，保证马上可以查到
+        template.refresh(index);
+        return article;
+    }
+
+    @Override
+    public <S extends Article> Iterable<S> saveAll(Iterable<S> articles) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        Set<String> ids = new LinkedHashSet<>();
+        Set<String> routing = new LinkedHashSet<>();
+        for (S article : articles) {
+            ids.add(String.valueOf(article.getId()));
+            routing.add(EntityRouting.routingOf(article));
+        }
+        // 一次查询找到所有已有文章所在的后备索引
+        Map<String, String> located = locate(ids, routing.toArray(new String[0]));
+        BulkRequestBuilder bulk = template.getClient().prepareBulk();
+        for (S article : articles) {
+            String index = located.getOrDefault(String.valueOf(article.getId()), writeIndex(entity));
+            bulk.add(prepareIndex(entity, index, article));
+        }
+        if (bulk.numberOfActions() == 0) {
+            return articles;
+        }
+        BulkResponse response = bulk.get();
+        if (response.hasFailures()) {
+            Map<String, String> failedDocuments = new HashMap<>();
+            for (BulkItemResponse item : response) {
+                if (item.isFailed()) {
+                    failedDocuments.put(item.getId(), item.getFailureMessage());
+                }
+            }
+            throw new ElasticsearchException("批量写入失败：" + failedDocuments, failedDocuments);
+        }
+        template.refresh(entity.getIndexName());
+        return articles;
+    }
+
+    @Override
+    public void delete(Article article) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        String routing = EntityRouting.routingOf(article);
+        String index = indexOf(entity, article.getId(), routing);
+        template.getClient().prepareDelete(index, entity.getIndexType(), String.valueOf(article.getId()))
+                .setRouting(routing)
+                .get();
+        template.refresh(index);
+    }
+
+    /**
+     * 只有id时不知道routing，先找到文章再按它的routing和所在索引删除
+     */
+    @Override
+    public void deleteById(Long id) {
+        findById(id).ifPresent(this::delete);
+    }
+
+    /**
+     * 文章按category路由并且mapping要求routing，只有id时不能get，所以用ids查询
+     */
+    @Override
+    public Optional<Article> findById(Long id) {
+        return searchByIds(Collections.singletonList(id)).stream().findFirst();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return findById(id).isPresent();
+    }
+
+    @Override
+    public Iterable<Article> findAllById(Iterable<Long> ids) {
+        List<Long> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+        return searchByIds(idList);
+    }
+
+    /**
+     * 不知道routing时不能用get和multi get，改为在所有分片上用ids查询，只能读到已经refresh的文档
+     */
+    private List<Article> searchByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String[] stringIds = new String[ids.size()];
+        for (int i = 0; i < stringIds.length; i++) {
+            stringIds[i] = String.valueOf(ids.get(i));
+        }
+        SearchResponse response = prepareSearch(QueryBuilders.idsQuery().addIds(stringIds))
+                .setSize(stringIds.length)
+                .get();
+        return resultMapper().mapResults(response, Article.class, PageRequest.of(0, stringIds.length)).getContent();
+    }
+
+    /**
+     * 新文章写入的索引：配置了rollover时为写别名，否则为实体上的索引
+     */
+    private String writeIndex(ElasticsearchPersistentEntity<?> entity) {
+        return rollover == null ? entity.getIndexName() : rollover.getWriteAlias();
+    }
+
+    /**
+     * 按id写入一篇文章时使用的索引：已有的文章写回所在的后备索引，新文章写入{@link #writeIndex}
+     */
+    private String indexOf(ElasticsearchPersistentEntity<?> entity, Long id, String routing) {
+        String key = String.valueOf(id);
+        return locate(Collections.singletonList(key), routing).getOrDefault(key, writeIndex(entity));
+    }
+
+    /**
+     * 已有文章所在的后备索引，id -> 索引名；没有配置rollover时只有一个索引，不需要查找
+     */
+    private Map<String, String> locate(Collection<String> ids, String... routing) {
+        return rollover == null ? Collections.emptyMap() : rollover.locate(ids, routing);
+    }
+
+    @Override
+    public DocWriteResponse.Result update(Article article, String... properties) {
+        return update(article.getId(), EntityRouting.routingOf(article), fieldsOf(article, properties));
+    }
+
+    @Override
+    public DocWriteResponse.Result update(Long id, String routing, Map<String, Object> fields) {
+        return prepareUpdate(id, routing, fields).get().getResult();
+    }
+
+    @Override
+    public DocWriteResponse.Result upsert(Article article, String... properties) {
+        String source;
+        try {
+            source = entityMapper.mapToString(article);
+        } catch (IOException e) {
+            throw new ElasticsearchException("序列化文档[" + article.getId() + "]失败", e);
+        }
+        return prepareUpdate(article.getId(), EntityRouting.routingOf(article), fieldsOf(article, properties))
+                .setUpsert(source, XContentType.JSON)
+                .get().getResult();
+    }
+
+    @Override
+    public CompletableFuture<DocWriteResponse.Result> updateLater(Article article, String... properties) {
+        if (updateBuffer == null) {
+            return CompletableFuture.completedFuture(update(article, properties));
+        }
+        // 文章所在的后备索引由articleUpdateBuffer在发送时查找
+        return updateBuffer.update(String.valueOf(article.getId()), EntityRouting.routingOf(article),
+                fieldsOf(article, properties));
+    }
+
+    /**
+     * ElasticsearchTemplate.update会丢掉detect_noop和upsert文档，所以直接用client更新
+     */
+    private UpdateRequestBuilder prepareUpdate(Long id, String routing, Map<String, Object> fields) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        return template.getClient().prepareUpdate(indexOf(entity, id, routing), entity.getIndexType(), String.valueOf(id))
+                .setRouting(routing)
+                .setDoc(fields)
+                // 字段值都没有变化时不写入，返回NOOP
+                .setDetectNoop(true);
+    }
+
+    /**
+     * article中这些属性的值，属性名和文档中的字段名相同
+     */
+    private static Map<String, Object> fieldsOf(Article article, String... properties) {
+        BeanWrapper wrapper = new BeanWrapperImpl(article);
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (String property : properties) {
+            fields.put(property, wrapper.getPropertyValue(property));
+        }
+        return fields;
+    }
+
+    @Override
+    public Optional<Article> findById(Long id, String routing) {
+        return findAllById(Collections.singletonList(id), routing).stream().findFirst();
+    }
+
+    /**
+     * 配置了rollover时读别名指向多个后备索引，不能在别名上get，每个id在每个后备索引上各get一次，都在同一个multi get中
+     */
+    @Override
+    public List<Article> findAllById(Iterable<Long> ids, String routing) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        List<String> indices = rollover == null
+                ? Collections.singletonList(entity.getIndexName())
+                : rollover.backingIndices();
+        MultiGetRequestBuilder request = template.getClient().prepareMultiGet();
+        for (Long id : ids) {
+            for (String index : indices) {
+                request.add(new MultiGetRequest.Item(index, entity.getIndexType(), String.valueOf(id)).routing(routing));
+            }
+        }
+        if (request.request().getItems().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Article> articles = new ArrayList<>();
+        for (MultiGetItemResponse item : request.get()) {
+            if (item.isFailed()) {
+                throw new ElasticsearchException("读取文档[" + item.getId() + "]失败：" + item.getFailure().getMessage(),
+                        item.getFailure().getFailure());
+            }
+            if (item.getResponse().isExists()) {
+                articles.add(resultMapper().mapResult(item.getResponse(), Article.class));
+            }
+        }
+        return articles;
+    }
+
+    /**
+     * ElasticsearchTemplate.index不支持routing，直接用client写入，_source仍按spring的实体映射生成
+     */
+    private IndexRequestBuilder prepareIndex(ElasticsearchPersistentEntity<?> entity, String index, Article article) {
+        String source;
+        try {
+            source = entityMapper.mapToString(article);
+        } catch (IOException e) {
+            throw new ElasticsearchException("序列化文档[" + article.getId() + "]失败", e);
+        }
+        return template.getClient()
+                .prepareIndex(index, entity.getIndexType(), String.valueOf(article.getId()))
+                // @Routing字段的值，同一分类的文档写入同一个分片
+                .setRouting(EntityRouting.routingOf(article))
+                .setSource(source, XContentType.JSON);
+    }
+
+    @Override
+    public Page<Article> search(QueryBuilder query, String routing, Pageable pageable) {
+        // ElasticsearchTemplate.queryForPage会忽略SearchQuery中的route，所以直接用client查询
+        SearchRequestBuilder request = prepareSearch(query)
+                .setRouting(routing)
+                .setFrom((int) pageable.getOffset())
+                .setSize(pageable.getPageSize());
+        for (Sort.Order order : pageable.getSort()) {
+            request.addSort(order.getProperty(), order.isAscending() ? SortOrder.ASC : SortOrder.DESC);
+        }
+        return resultMapper().mapResults(request.get(), Article.class, pageable);
+    }
+
+    @Override
+    public Page<Article> findByTitleAndCategory(String title, String category, Pageable pageable) {
+        QueryBuilder query = QueryBuilders.boolQuery()
+                .must(QueryBuilders.queryStringQuery(title).defaultField("title"))
+                .filter(QueryBuilders.termQuery("category", category));
+        return search(query, category, pageable);
+    }
+
+    @Override
+    public List<String> suggest(String prefix, int size, String... categories) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        // completion子字段由mappings/article.json定义，title写入时自动生成，只需要提示的文本，不返回_source
+        SearchRequestBuilder request = template.getClient().prepareSearch(entity.getIndexName())
+                .setTypes(entity.getIndexType())
+                .setSize(0)
+                .setFetchSource(false)
+                .suggest(TitleSuggest.build(prefix, size, true, categories));
+        if (categories.length > 0) {
+            request.setRouting(categories);
+        }
+        if (searchCoalescer == null) {
+            return TitleSuggest.titles(request.get());
+        }
+        return searchCoalescer.execute("suggest|" + entity.getIndexName() + '|' + prefix + '|' + size + '|'
+                + Arrays.toString(categories), () -> TitleSuggest.titles(request.get()));
+    }
+
+    @Override
+    public Page<Article> search(QueryBuilder query, Pageable pageable, String... includes) {
+        NativeSearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withQuery(query)
+                // _source过滤，只有指定的字段会在网络上传输
+                .withSourceFilter(new FetchSourceFilter(includes, null))
+                .withPageable(pageable)
+                .build();
+        return search(searchQuery);
+    }
+
+    @Override
+    public Page<Article> searchStoredFields(QueryBuilder query, Pageable pageable, String... storedFields) {
+        NativeSearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withQuery(query)
+                // stored_fields，没有_source时结果从这些字段映射成Article
+                .withFields(storedFields)
+                .withPageable(pageable)
+                .build();
+        return search(searchQuery);
+    }
+
+    @Override
+    public Page<Article> search(SearchQuery query) {
+        if (searchCoalescer == null) {
+            return template.queryForPage(query, Article.class);
+        }
+        return searchCoalescer.execute(keyOf(query), () -> template.queryForPage(query, Article.class));
+    }
+
+    /**
+     * 查询中所有影响结果的部分，QueryBuilder转换成紧凑的JSON
+     */
+    private static String keyOf(SearchQuery query) {
+        SourceFilter sourceFilter = query.getSourceFilter();
+        return query.getIndices() + "|" + query.getTypes() + "|" + toJson(query.getQuery())
+                + "|" + toJson(query.getFilter())
+                + "|" + query.getElasticsearchSorts() + "|" + query.getSort() + "|" + query.getPageable()
+                + "|" + query.getFields() + "|" + query.getRoute()
+                + "|" + (sourceFilter == null ? null
+                : Arrays.toString(sourceFilter.getIncludes()) + Arrays.toString(sourceFilter.getExcludes()));
+    }
+
+    @Override
+    public Page<Article> findTitlesByTitleOrContent(String title, String content, Pageable pageable) {
+        return search(titleOrContent(title, content), pageable, "id", "title");
+    }
+
+    private static QueryBuilder titleOrContent(String title, String content) {
+        return QueryBuilders.boolQuery()
+                .should(QueryBuilders.queryStringQuery(title).defaultField("title"))
+                .should(QueryBuilders.queryStringQuery(content).defaultField("content"));
+    }
+
+    @Override
+    public CursorSlice<Article> findByTitleOrContent(String title, String content, SearchAfterCursor cursor) {
+        return searchAfter(titleOrContent(title, content), cursor);
+    }
+
+    @Override
+    public CursorSlice<Article> searchAfter(QueryBuilder query, SearchAfterCursor cursor) {
+        return searchAfter(new NativeSearchQueryBuilder().withQuery(query).build(), cursor);
+    }
+
+    @Override
+    public CursorSlice<Article> searchAfter(SearchQuery query, SearchAfterCursor cursor) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        String[] indices = query.getIndices().isEmpty()
+                ? new String[]{entity.getIndexName()} : toArray(query.getIndices());
+        String[] types = query.getTypes().isEmpty()
+                ? new String[]{entity.getIndexType()} : toArray(query.getTypes());
+        int size = cursor.getSize();
+        // 多取一条，用来判断是否还有下一页
+        SearchRequestBuilder request = template.getClient().prepareSearch(indices)
+                .setTypes(types)
+                .setQuery(query.getQuery())
+                .setSize(size + 1);
+        if (query.getFilter() != null) {
+            request.setPostFilter(query.getFilter());
+        }
+        if (query.getRoute() != null) {
+            request.setRouting(query.getRoute());
+        }
+        SourceFilter sourceFilter = query.getSourceFilter();
+        if (sourceFilter != null) {
+            request.setFetchSource(sourceFilter.getIncludes(), sourceFilter.getExcludes());
+        }
+        for (SortBuilder<?> sort : sortsOf(query, cursor)) {
+            request.addSort(sort);
+        }
+        if (!cursor.isFirst()) {
+            request.searchAfter(cursor.getSortValues());
+        }
+        SearchResponse response = request.get();
+
+        List<Article> content = resultMapper().mapResults(response, Article.class, PageRequest.of(0, size + 1))
+                .getContent();
+        SearchHit[] hits = response.getHits().getHits();
+        if (hits.length <= size) {
+            return new CursorSlice<>(content, cursor, null);
+        }
+        return new CursorSlice<>(content.subList(0, size), cursor, cursor.next(hits[size - 1].getSortValues()));
+    }
+
+    @Override
+    public AggregationResult aggregate(QueryBuilder query, AbstractAggregationBuilder<?>... aggregations) {
+        SearchRequestBuilder request = prepareSearch(query)
+                // 不返回文档，只返回总数和聚合结果
+                .setSize(0);
+        for (AbstractAggregationBuilder<?> aggregation : aggregations) {
+            request.addAggregation(aggregation);
+        }
+        return AggregationResult.of(request.get());
+    }
+
+    @Override
+    public long count(QueryBuilder query, int terminateAfter) {
+        return prepareSearch(query)
+                .setSize(0)
+                .setTerminateAfter(terminateAfter)
+                .get().getHits().getTotalHits();
+    }
+
+    @Override
+    public boolean exists(QueryBuilder query) {
+        return count(query, 1) > 0;
+    }
+
+    /**
+     * 直接用client查询Article所在的索引和类型
+     */
+    private SearchRequestBuilder prepareSearch(QueryBuilder query) {
+        ElasticsearchPersistentEntity<?> entity = template.getPersistentEntityFor(Article.class);
+        return template.getClient().prepareSearch(entity.getIndexName())
+                .setTypes(entity.getIndexType())
+                .setQuery(query);
+    }
+
+    /**
+     * 查询中的排序加上游标中的排序，都没有时按相关度排序，最后加上id保证排序唯一
+     */
+    static List<SortBuilder<?>> sortsOf(SearchQuery query, SearchAfterCursor cursor) {
+        List<SortBuilder<?>> sorts = new ArrayList<>();
+        if (query.getElasticsearchSorts() != null) {
+            for (SortBuilder<?> sort : query.getElasticsearchSorts()) {
+                sorts.add(sort);
+            }
+        }
+        Sort sort = query.getSort() == null ? cursor.getSort() : query.getSort().and(cursor.getSort());
+        for (Sort.Order order : sort) {
+            sorts.add(SortBuilders.fieldSort(order.getProperty())
+                    .order(order.isAscending() ? SortOrder.ASC : SortOrder.DESC));
+        }
+        if (sorts.isEmpty()) {
+            sorts.add(SortBuilders.scoreSort());
+        }
+        boolean hasId = false;
+        for (SortBuilder<?> builder : sorts) {
+            hasId |= builder instanceof FieldSortBuilder && "id".equals(((FieldSortBuilder) builder).getFieldName());
+        }
+        if (!hasId) {
+            sorts.add(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+        }
+        return sorts;
+    }
+
+    private static String toJson(QueryBuilder query) {
+        return query == null ? null : Strings.toString(query);
+    }
+
+    private DefaultResultMapper resultMapper() {
+        if (resultMapper == null) {
+            resultMapper = new DefaultResultMapper(template.getElasticsearchConverter().getMappingContext());
+        }
+        return resultMapper;
+    }
+
+    private static String[] toArray(List<String> values) {
+        return values.toArray(new String[0]);
+    }
+
+    @Override
+    public Stream<Article> streamAll() {
+        return stream(QueryBuilders.matchAllQuery(), DEFAULT_BATCH_SIZE, DEFAULT_KEEP_ALIVE);
+    }
+
+    @Override
+    public Stream<Article> streamByTitle(String title) {
+        return stream(QueryBuilders.queryStringQuery(title).defaultField("title"), DEFAULT_BATCH_SIZE, DEFAULT_KEEP_ALIVE);
+    }
+
+    @Override
+    public Stream<Article> stream(QueryBuilder query, int batchSize, long keepAliveMillis) {
+        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withQuery(query)
+                // scroll请求中size是每批的文档数
+                .withPageable(PageRequest.of(0, batchSize))
+                .build();
+        // 关闭Stream时关闭迭代器，清除scroll上下文
+        return StreamUtils.createStreamFromIterator(new ScrollIterator(searchQuery, keepAliveMillis));
+    }
+
+    /**
+     * 按需读取下一批的scroll迭代器
+     * <p>
+     * 第一次hasNext时才发起查询，当前批读完后再continueScroll，读到空批或者被关闭时清除scroll上下文。
+     * ElasticsearchTemplate.stream的保留时间固定为1分钟，读完后也不会清除scroll，所以这里自己实现。
+     */
+    private class ScrollIterator implements CloseableIterator<Article> {
+
+        private final SearchQuery query;
+        private final long keepAliveMillis;
+        private String scrollId;
+        private Iterator<Article> batch = Collections.emptyIterator();
+        private boolean started;
+        private boolean finished;
+
+        ScrollIterator(SearchQuery query, long keepAliveMillis) {
+            this.query = query;
+            this.keepAliveMillis = keepAliveMillis;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext()) {
+                if (finished) {
+                    return false;
+                }
+                ScrolledPage<Article> page = (ScrolledPage<Article>) (started
+                        ? template.continueScroll(scrollId, keepAliveMillis, Article.class)
+                        : template.startScroll(keepAliveMillis, query, Article.class));
+                started = true;
+                scrollId = page.getScrollId();
+                if (!page.hasContent()) {
+                    close();
+                    return false;
+                }
+                batch = page.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Article next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+
+        @Override
+        public void close() {
+            finished = true;
+            batch = Collections.emptyIterator();
+            if (scrollId != null) {
+                template.clearScroll(scrollId);
+                scrollId = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.itheima.es.dao;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.List;
+
+/**
+ * search_after查询的一页结果，不计算总页数，只知道是否还有下一页
+ */
+public class CursorSlice<T> extends SliceImpl<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SearchAfterCursor nextCursor;
+
+    CursorSlice(List<T> content, SearchAfterCursor cursor, SearchAfterCursor nextCursor) {
+        super(content, PageRequest.of(0, cursor.getSize(), cursor.getSort()), nextCursor != null);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * 下一页的游标，没有下一页时返回null
+     */
+    public SearchAfterCursor getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,118 @@
+package com.itheima.es.dao;
+
+import com.itheima.es.index.RolloverManager;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Mapping;
+import org.springframework.util.StreamUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按实体类上的@Document和@Mapping创建RolloverManager：indexName作为读别名，分片数、副本数、刷新间隔和mapping用于每个后备索引
+ * <p>
+ * 初始化时执行{@link RolloverManager#bootstrap()}，别名不存在时创建第一个后备索引。已有同名的普通索引时初始化失败，
+ * 不会自动迁移数据，需要先显式调用{@link RolloverManager#migrate()}。设置了checkInterval时每隔checkInterval在后台执行一次
+ * rollover和旧索引的shrink，没有设置时不启动，由调用者自己执行{@link RolloverManager#maintain()}。
+ * repository启动时会检查索引是否存在，不存在就按@Document创建普通索引，所以elasticsearchTemplate要depends-on这个bean。
+ */
+public class RolloverManagerFactoryBean implements FactoryBean<RolloverManager>, InitializingBean, DisposableBean {
+
+    private Client client;
+    private Class<?> entityClass;
+    private long maxDocs;
+    private String maxSize;
+    private String maxAge;
+    private String checkInterval;
+    private RolloverManager manager;
+
+    public void setClient(Client client) {
+        this.client = client;
+    }
+
+    public void setEntityClass(Class<?> entityClass) {
+        this.entityClass = entityClass;
+    }
+
+    public void setMaxDocs(long maxDocs) {
+        this.maxDocs = maxDocs;
+    }
+
+    /**
+     * 例如5gb
+     */
+    public void setMaxSize(String maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 例如7d
+     */
+    public void setMaxAge(String maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * 检查rollover条件的间隔，例如5m，null表示不在后台执行
+     */
+    public void setCheckInterval(String checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Document document = entityClass.getAnnotation(Document.class);
+        if (document == null) {
+            throw new IllegalArgumentException(entityClass.getName() + "上没有@Document");
+        }
+        RolloverManager.Builder builder = RolloverManager.builder(client, document.indexName(), document.type())
+                .settings(Settings.builder()
+                        .put("index.number_of_shards", document.shards())
+                        .put("index.number_of_replicas", document.replicas())
+                        .put("index.refresh_interval", document.refreshInterval())
+                        .build())
+                .maxDocs(maxDocs);
+        Mapping mapping = entityClass.getAnnotation(Mapping.class);
+        if (mapping != null) {
+            try (InputStream in = new ClassPathResource(mapping.mappingPath()).getInputStream()) {
+                builder.mapping(StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+            }
+        }
+        if (maxSize != null) {
+            builder.maxSize(ByteSizeValue.parseBytesSizeValue(maxSize, "maxSize"));
+        }
+        if (maxAge != null) {
+            builder.maxAge(TimeValue.parseTimeValue(maxAge, "maxAge"));
+        }
+        manager = builder.build();
+        manager.bootstrap();
+        if (checkInterval != null) {
+            manager.start(TimeValue.parseTimeValue(checkInterval, "checkInterval"));
+        }
+    }
+
+    @Override
+    public RolloverManager getObject() {
+        return manager;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return RolloverManager.class;
+    }
+
+    @Override
+    public void destroy() {
+        if (manager != null) {
+            manager.close();
+        }
+    }
+}
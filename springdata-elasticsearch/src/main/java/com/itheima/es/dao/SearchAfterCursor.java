@@ -0,0 +1,77 @@
+package com.itheima.es.dao;
+
+import org.springframework.data.domain.Sort;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * search_after翻页的游标：每页条数、排序方式以及上一页最后一个文档的排序值
+ * <p>
+ * 第一页用{@link #first(int, Sort)}创建，之后的页使用{@link CursorSlice#getNextCursor()}。
+ * 排序的最后总会加上id作为唯一的排序字段，所以排序值的最后一个总是id。
+ */
+public final class SearchAfterCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int size;
+    private final Sort sort;
+    // 上一页最后一个文档的排序值，第一页为null
+    private final Object[] sortValues;
+
+    private SearchAfterCursor(int size, Sort sort, Object[] sortValues) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size必须大于0：" + size);
+        }
+        this.size = size;
+        this.sort = sort == null ? Sort.unsorted() : sort;
+        this.sortValues = sortValues;
+    }
+
+    /**
+     * 第一页，按相关度排序
+     */
+    public static SearchAfterCursor first(int size) {
+        return new SearchAfterCursor(size, Sort.unsorted(), null);
+    }
+
+    /**
+     * 第一页，按sort排序
+     */
+    public static SearchAfterCursor first(int size, Sort sort) {
+        return new SearchAfterCursor(size, sort, null);
+    }
+
+    /**
+     * 从sortValues之后开始的下一页，排序和每页条数不变
+     */
+    SearchAfterCursor next(Object[] sortValues) {
+        return new SearchAfterCursor(size, sort, sortValues);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public Object[] getSortValues() {
+        return sortValues;
+    }
+
+    public boolean isFirst() {
+        return sortValues == null;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchAfterCursor{" +
+                "size=" + size +
+                ", sort=" + sort +
+                ", sortValues=" + Arrays.toString(sortValues) +
+                '}';
+    }
+}
@@ -1,12 +1,18 @@
 package com.itheima.es.entity;
 
+import com.itheima.es.index.Routing;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.Mapping;
 
-// @Document 文档对象 （索引信息、文档类型 ）
-@Document(indexName = "blog3", type = "article")
+// @Document 文档对象 （索引信息、文档类型、分片数、副本数、刷新间隔 ）
+@Document(indexName = "blog3", type = "article", shards = 5, replicas = 1, refreshInterval = "1s")
+// @Field不支持term_vector、index_options和子字段，映射改从mappings/article.json读取，修改字段时两处要保持一致：
+// title保存term vector用于fvh高亮，content在倒排索引中保存偏移量用于unified高亮，高亮时都不需要重新分词；
+// title.suggest是completion子字段，用于ArticleRepository.suggest的输入提示，写入时由ES从title自动生成
+@Mapping(mappingPath = "mappings/article.json")
 public class Article {
 
     // @Id 文档主键 唯一标识
@@ -15,12 +21,18 @@ public class Article {
     @Field(type = FieldType.Long, store = true)
     private long id;
 
-    @Field(type = FieldType.text, store = true, analyzer = "ik_smart")
+    // fielddata = true 才能对title的词条做terms聚合
+    @Field(type = FieldType.text, store = true, analyzer = "ik_smart", fielddata = true)
     private String title;
 
     @Field(type = FieldType.text, store = true, analyzer = "ik_smart")
     private String content;
 
+    // @Routing 分类同时作为routing，由ArticleRepository的save/saveAll/delete使用，同一分类的文章在同一个分片上
+    @Routing
+    @Field(type = FieldType.keyword, store = true)
+    private String category;
+
     public long getId() {
         return id;
     }
@@ -45,12 +57,21 @@ public class Article {
         this.content = content;
     }
 
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
     @Override
     public String toString() {
         return "Article{" +
                 "id=" + id +
                 ", title='" + title + '\'' +
                 ", content='" + content + '\'' +
+                ", category='" + category + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,132 @@
+package com.itheima.es.dao;
+
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.ScoreSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * search_after游标、CursorSlice以及排序的生成，不需要连接集群
+ */
+public class SearchAfterCursorTest {
+
+    @Test
+    public void testNextKeepsSizeAndSort() {
+        Sort sort = Sort.by(Sort.Direction.DESC, "hitCount");
+        SearchAfterCursor first = SearchAfterCursor.first(10, sort);
+        assertTrue(first.isFirst());
+        assertNull(first.getSortValues());
+
+        SearchAfterCursor next = first.next(new Object[]{100L, "42"});
+        assertFalse(next.isFirst());
+        assertEquals(10, next.getSize());
+        assertEquals(sort, next.getSort());
+        assertArrayEquals(new Object[]{100L, "42"}, next.getSortValues());
+    }
+
+    @Test
+    public void testFirstWithoutSortIsUnsorted() {
+        assertTrue(SearchAfterCursor.first(10).getSort().isUnsorted());
+        assertTrue(SearchAfterCursor.first(10, null).getSort().isUnsorted());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveSize() {
+        SearchAfterCursor.first(0);
+    }
+
+    /**
+     * 游标可以序列化后交给下一次请求
+     */
+    @Test
+    public void testSerializable() throws Exception {
+        SearchAfterCursor cursor = SearchAfterCursor.first(5, Sort.by("title")).next(new Object[]{"java", "7"});
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(cursor);
+        }
+        SearchAfterCursor copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (SearchAfterCursor) in.readObject();
+        }
+        assertEquals(5, copy.getSize());
+        assertEquals(Sort.by("title"), copy.getSort());
+        assertArrayEquals(new Object[]{"java", "7"}, copy.getSortValues());
+    }
+
+    @Test
+    public void testSliceHasNextOnlyWithNextCursor() {
+        SearchAfterCursor cursor = SearchAfterCursor.first(2);
+        CursorSlice<String> last = new CursorSlice<>(Arrays.asList("a", "b"), cursor, null);
+        assertFalse(last.hasNext());
+        assertNull(last.getNextCursor());
+
+        SearchAfterCursor next = cursor.next(new Object[]{1.0f, "2"});
+        CursorSlice<String> slice = new CursorSlice<>(Arrays.asList("a", "b"), cursor, next);
+        assertTrue(slice.hasNext());
+        assertEquals(next, slice.getNextCursor());
+        assertEquals(2, slice.getSize());
+    }
+
+    @Test
+    public void testNoSortFallsBackToScoreAndId() {
+        List<SortBuilder<?>> sorts = ArticleRepositoryImpl.sortsOf(query(), SearchAfterCursor.first(10));
+        assertEquals(2, sorts.size());
+        assertTrue(sorts.get(0) instanceof ScoreSortBuilder);
+        assertIdAscending(sorts.get(1));
+    }
+
+    @Test
+    public void testCursorSortIsFollowedById() {
+        List<SortBuilder<?>> sorts = ArticleRepositoryImpl.sortsOf(query(),
+                SearchAfterCursor.first(10, Sort.by(Sort.Direction.DESC, "hitCount")));
+        assertEquals(2, sorts.size());
+        FieldSortBuilder hitCount = (FieldSortBuilder) sorts.get(0);
+        assertEquals("hitCount", hitCount.getFieldName());
+        assertEquals(SortOrder.DESC, hitCount.order());
+        assertIdAscending(sorts.get(1));
+    }
+
+    /**
+     * 排序中已经有id时不再重复添加
+     */
+    @Test
+    public void testExistingIdSortIsNotDuplicated() {
+        SearchQuery query = new NativeSearchQueryBuilder()
+                .withQuery(QueryBuilders.matchAllQuery())
+                .withSort(SortBuilders.fieldSort("id").order(SortOrder.DESC))
+                .build();
+        List<SortBuilder<?>> sorts = ArticleRepositoryImpl.sortsOf(query, SearchAfterCursor.first(10));
+        assertEquals(1, sorts.size());
+        assertEquals(SortOrder.DESC, sorts.get(0).order());
+    }
+
+    private static SearchQuery query() {
+        return new NativeSearchQueryBuilder().withQuery(QueryBuilders.matchAllQuery()).build();
+    }
+
+    private static void assertIdAscending(SortBuilder<?> sort) {
+        assertTrue(sort instanceof FieldSortBuilder);
+        assertEquals("id", ((FieldSortBuilder) sort).getFieldName());
+        assertEquals(SortOrder.ASC, sort.order());
+    }
+}
@@ -1,22 +1,39 @@
 package com.itheima.es.test;
 
+import com.itheima.es.bulk.ArticleUpdateBuffer;
 import com.itheima.es.dao.ArticleRepository;
+import com.itheima.es.dao.CursorSlice;
+import com.itheima.es.dao.SearchAfterCursor;
 import com.itheima.es.entity.Article;
+import com.itheima.es.metrics.ClientMetrics;
+import com.itheima.es.metrics.OperationStats;
+import com.itheima.es.search.AggregationResult;
+import com.itheima.es.search.SearchCoalescer;
+import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration("classpath:applicationContext.xml")
@@ -26,6 +43,10 @@ public class SpringDataElasticSearchTest {
     private ArticleRepository articleRepository;
     @Autowired
     private ElasticsearchTemplate template;
+    @Autowired
+    private SearchCoalescer searchCoalescer;
+    @Autowired
+    private ArticleUpdateBuffer updateBuffer;
 
     /**
      * 创建索引和映射
@@ -46,6 +67,8 @@ public class SpringDataElasticSearchTest {
         Article article = new Article();
         article.setId(100);
         article.setTitle("测试SpringData ElasticSearch");
+        // 分类同时是routing，mapping要求每个文档都带routing
+        article.setCategory("java");
         article.setContent("Spring Data ElasticSearch 基于 spring data API 简化 elasticSearch操作，将原始操作elasticSearch的客户端API进行封装Spring Data为Elasticsearch Elasticsearch项目提供集成搜索引擎");
         articleRepository.save(article);
     }
@@ -59,19 +82,40 @@ public class SpringDataElasticSearchTest {
         article.setId(1001);
         article.setTitle("elasticSearch 3.0版本发布");
         article.setContent("ElasticSearch是一个基于Lucene的搜索服务器。它提供了一个分布式多用户能力的全文搜索引擎，基于RESTful web接口");
+        article.setCategory("search");
         articleRepository.save(article);
     }
 
     /**
-     * 测试更新
+     * 测试更新，只更新title，不再重新写入整篇文章
      */
     @Test
     public void update() {
         Article article = new Article();
         article.setId(1001);
         article.setTitle("elasticSearch 3.0版本发布...更新");
-        article.setContent("ElasticSearch是一个基于Lucene的搜索服务器。它提供了一个分布式多用户能力的全文搜索引擎，基于RESTful web接口");
-        articleRepository.save(article);
+        article.setCategory("search");
+        // 标题没有变化时返回NOOP
+        System.out.println(articleRepository.update(article, "title"));
+    }
+
+    /**
+     * 延迟更新，同一篇文章的多次更新合并成一次写入
+     */
+    @Test
+    public void updateLater() throws Exception {
+        List<CompletableFuture<DocWriteResponse.Result>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Article article = new Article();
+            article.setId(1001);
+            article.setTitle("elasticSearch 3.0版本发布...第" + i + "次更新");
+            article.setCategory("search");
+            futures.add(articleRepository.updateLater(article, "title"));
+        }
+        for (CompletableFuture<DocWriteResponse.Result> future : futures) {
+            future.get();
+        }
+        System.out.println(updateBuffer);
     }
 
     /**
@@ -84,6 +128,24 @@ public class SpringDataElasticSearchTest {
         //articleRepository.deleteAll();
     }
 
+    /**
+     * 带routing保存和查询，分类作为routing，按分类查询时只访问一个分片
+     */
+    @Test
+    public void testRouting() throws Exception {
+        Article article = new Article();
+        article.setId(1002);
+        article.setTitle("elasticSearch 3.0版本发布");
+        article.setContent("ElasticSearch是一个基于Lucene的搜索服务器。它提供了一个分布式多用户能力的全文搜索引擎，基于RESTful web接口");
+        article.setCategory("java");
+        articleRepository.save(article);
+        // 根据id查询时需要带上写入时的routing
+        System.out.println(articleRepository.findById(1002L, "java").orElse(null));
+        articleRepository.findByTitleAndCategory("版本", "java", PageRequest.of(0, 10))
+                .forEach(System.out::println);
+        articleRepository.delete(article);
+    }
+
     /**
      * 批量插入100条数据
      */
@@ -93,6 +155,7 @@ public class SpringDataElasticSearchTest {
             Article article = new Article();
             article.setId(i);
             article.setTitle(i + "elasticSearch 3.0版本发布..，更新");
+            article.setCategory(i % 2 == 0 ? "java" : "search");
             article.setContent(i + "ElasticSearch是一个基于Lucene的搜索服务器。它提供了一个分布式多用户能力的全文搜索引擎，基于RESTful web接口");
             articleRepository.save(article);
         }
@@ -105,13 +168,38 @@ public class SpringDataElasticSearchTest {
         articles.forEach(a -> System.out.println(a));
     }
 
+    /**
+     * 用scroll逐批读取全部文档，内存中最多只有一批，读完或者关闭Stream时清除scroll
+     */
+    @Test
+    public void testStreamAll() throws Exception {
+        try (Stream<Article> articles = articleRepository.streamAll()) {
+            System.out.println(articles.count());
+        }
+        try (Stream<Article> articles = articleRepository.streamByTitle("版本")) {
+            articles.limit(10).forEach(a -> System.out.println(a));
+        }
+    }
+
+    /**
+     * 带上分类按routing直接get，马上可以读到刚写入的文档
+     */
     @Test
     public void testFindById() throws Exception {
-        Optional<Article> optional = articleRepository.findById(1l);
+        Optional<Article> optional = articleRepository.findById(1l, "search");
         Article article = optional.get();
         System.out.println(article);
     }
 
+    /**
+     * 根据同一分类的一组id查询，一次multi get请求而不是每个id一次get
+     */
+    @Test
+    public void testFindAllById() throws Exception {
+        Iterable<Article> articles = articleRepository.findAllById(Arrays.asList(2L, 4L, 6L, 100L), "java");
+        articles.forEach(a -> System.out.println(a));
+    }
+
     @Test
     public void testFindByTitle() throws Exception {
         List<Article> list = articleRepository.findByTitle("新版本发布了");
@@ -125,6 +213,63 @@ public class SpringDataElasticSearchTest {
                 .forEach(a -> System.out.println(a));
     }
 
+    /**
+     * search_after翻页，按id排序，每页15条，深分页的开销和第一页相同
+     */
+    @Test
+    public void testSearchAfter() throws Exception {
+        SearchAfterCursor cursor = SearchAfterCursor.first(15, Sort.by("id"));
+        for (int page = 1; page <= 3 && cursor != null; page++) {
+            CursorSlice<Article> slice = articleRepository.findByTitleOrContent("版本", "搜素服务器", cursor);
+            System.out.println("第" + page + "页");
+            slice.forEach(a -> System.out.println(a));
+            cursor = slice.getNextCursor();
+        }
+        // 任意查询条件都可以直接按游标翻页
+        CursorSlice<Article> byCategory = articleRepository.searchAfter(
+                QueryBuilders.termQuery("category", "java"), SearchAfterCursor.first(15, Sort.by("id")));
+        byCategory.forEach(a -> System.out.println(a));
+        // NativeSearchQuery中的分页被忽略，按游标翻页
+        NativeSearchQuery query = new NativeSearchQueryBuilder()
+                .withQuery(QueryBuilders.matchAllQuery())
+                .build();
+        CursorSlice<Article> first = articleRepository.searchAfter(query, SearchAfterCursor.first(15));
+        first.forEach(a -> System.out.println(a));
+        if (first.hasNext()) {
+            articleRepository.searchAfter(query, first.getNextCursor())
+                    .forEach(a -> System.out.println(a));
+        }
+    }
+
+    /**
+     * 聚合查询，只返回统计结果，不返回文档
+     */
+    @Test
+    public void testAggregation() throws Exception {
+        AggregationResult result = articleRepository.aggregate(QueryBuilders.matchAllQuery(),
+                AggregationBuilders.terms("titleTerms").field("title").size(10),
+                AggregationBuilders.histogram("idHistogram").field("id").interval(100),
+                AggregationBuilders.cardinality("idCount").field("id"),
+                AggregationBuilders.stats("idStats").field("id"));
+        System.out.println("title词条：" + result.getBuckets("titleTerms"));
+        System.out.println("id分段：" + result.getBuckets("idHistogram"));
+        System.out.println("不同的id：" + result.getCardinality("idCount"));
+        System.out.println("id统计：" + result.getStats("idStats"));
+        System.out.println("是否存在：" + articleRepository.exists(QueryBuilders.termQuery("title", "版本")));
+    }
+
+    /**
+     * 字段投影，列表页只返回id和title
+     */
+    @Test
+    public void testProjection() throws Exception {
+        Pageable pageable = PageRequest.of(0, 15);
+        articleRepository.findTitlesByTitleOrContent("版本", "搜素服务器", pageable)
+                .forEach(a -> System.out.println(a));
+        articleRepository.searchStoredFields(QueryBuilders.matchAllQuery(), pageable, "id", "title")
+                .forEach(a -> System.out.println(a));
+    }
+
     @Test
     public void testNativeSearchQuery() throws Exception {
         //创建一个查询对象
@@ -138,4 +283,49 @@ public class SpringDataElasticSearchTest {
         List<Article> articleList = template.queryForList(query, Article.class);
         articleList.forEach(a -> System.out.println(a));
     }
+
+    /**
+     * 搜索框的输入提示，按前缀从title.suggest中查找，代替每次按键发送的queryStringQuery
+     */
+    @Test
+    public void testSuggest() throws Exception {
+        System.out.println(articleRepository.suggest("新版", 5));
+        // 只提示java分类的文章
+        System.out.println(articleRepository.suggest("新版", 5, "java"));
+    }
+
+    /**
+     * 并发执行相同的查询，正在执行的相同查询只发送一次请求
+     */
+    @Test
+    public void testCoalescedSearch() throws Exception {
+        NativeSearchQuery query = new NativeSearchQueryBuilder()
+                .withQuery(QueryBuilders.queryStringQuery("新版本发布了").defaultField("title"))
+                .withPageable(PageRequest.of(0, 15))
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        List<Future<Page<Article>>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(executor.submit(() -> articleRepository.search(query)));
+        }
+        for (Future<Page<Article>> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        System.out.println(searchCoalescer);
+    }
+
+    /**
+     * 每种操作的请求数、延迟分位数和字节数（需要-Des.metrics.bytes=true），ElasticsearchTemplate的请求也会被统计
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            articleRepository.findById(1L, "search");
+            articleRepository.findByTitle("版本");
+        }
+        System.out.println(ClientMetrics.global().getReport());
+        OperationStats search = ClientMetrics.global().snapshot("search", "blog3");
+        System.out.println("search p99：" + search.getLatencyP99() + "ms，服务端took p99：" + search.getTookP99() + "ms");
+    }
 }
\ No newline at end of file